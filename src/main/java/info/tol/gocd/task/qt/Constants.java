@@ -22,8 +22,12 @@ import java.io.File;
  */
 public interface Constants {
 
-  String ENV_VERSION  = "VERSION";
-  String ENV_RELEASE  = "RELEASE";
+  String ENV_VERSION    = "VERSION";
+  String ENV_RELEASE    = "RELEASE";
+  String ENV_CACHE      = "PACKAGE_CACHE";
+  String ENV_CACHE_SIZE = "PACKAGE_CACHE_SIZE";
 
-  String PATH_PACKAGE = String.join(File.separator, "build", "packages");
+  String PATH_PACKAGE   = String.join(File.separator, "build", "packages");
+
+  long   CACHE_SIZE     = 10 * 1024;
 }
@@ -27,11 +27,16 @@ import info.tol.gocd.task.util.TaskRequest;
  */
 public class PackageConfig extends TaskConfig {
 
-  public static final String NAME   = "name";
-  public static final String PATH   = "path";
-  public static final String MODULE = "module";
-  public static final String SOURCE = "source";
-  public static final String TARGET = "target";
+  public static final String NAME        = "name";
+  public static final String PATH        = "path";
+  public static final String MODULE      = "module";
+  public static final String SOURCE      = "source";
+  public static final String TARGET      = "target";
+  public static final String COPY        = "copy";
+  public static final String PARALLELISM = "parallelism";
+  public static final String CONCURRENCY = "concurrency";
+  public static final String MODULES     = "modules";
+  public static final String STREAM      = "stream";
 
   public final String getReleaseName() {
     return getValue(PackageConfig.NAME);
@@ -53,6 +58,26 @@ public class PackageConfig extends TaskConfig {
     return getValue(PackageConfig.TARGET);
   }
 
+  public final String getCopyStrategy() {
+    return getValue(PackageConfig.COPY);
+  }
+
+  public final String getParallelism() {
+    return getValue(PackageConfig.PARALLELISM);
+  }
+
+  public final String getConcurrency() {
+    return getValue(PackageConfig.CONCURRENCY);
+  }
+
+  public final String getModules() {
+    return getValue(PackageConfig.MODULES);
+  }
+
+  public final String getStreaming() {
+    return getValue(PackageConfig.STREAM);
+  }
+
   /**
    * Parses the {@link TaskConfig} from the {@link GoPluginApiRequest}.
    *
@@ -69,9 +94,14 @@ public class PackageConfig extends TaskConfig {
     ConfigResponse config = new ConfigResponse();
     config.setValue(PackageConfig.NAME, "1.0", "Release Name", "1", true, false);
     config.setValue(PackageConfig.PATH, null, "Package Path", "2", false, false);
-    config.setValue(PackageConfig.MODULE, null, "Module Name", "3", true, false);
-    config.setValue(PackageConfig.SOURCE, null, "Sources", "4", true, false);
-    config.setValue(PackageConfig.TARGET, null, "Target Path", "5", true, false);
+    config.setValue(PackageConfig.MODULE, null, "Module Name", "3", false, false);
+    config.setValue(PackageConfig.SOURCE, null, "Sources", "4", false, false);
+    config.setValue(PackageConfig.TARGET, null, "Target Path", "5", false, false);
+    config.setValue(PackageConfig.COPY, "COPY", "Copy Strategy", "6", false, false);
+    config.setValue(PackageConfig.PARALLELISM, null, "Parallelism", "7", false, false);
+    config.setValue(PackageConfig.CONCURRENCY, "1", "Concurrent Packages", "8", false, false);
+    config.setValue(PackageConfig.MODULES, null, "Modules", "9", false, false);
+    config.setValue(PackageConfig.STREAM, "false", "Stream Archives", "10", false, false);
     return config;
   }
 
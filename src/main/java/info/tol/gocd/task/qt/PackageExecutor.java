@@ -19,8 +19,17 @@ import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.task.JobConsoleLogger;
 
 import java.io.File;
+import java.io.StringReader;
 import java.util.Arrays;
+import java.util.stream.Collectors;
 
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import info.tol.gocd.task.qt.builder.CopyStrategy;
 import info.tol.gocd.task.qt.builder.PackageBuilder;
 import info.tol.gocd.task.util.TaskRequest;
 import info.tol.gocd.task.util.TaskResponse;
@@ -87,7 +96,29 @@ public class PackageExecutor implements RequestHandler {
     try {
       PackageBuilder builder = PackageBuilder.of(workingDir, env);
       builder.setPackagePath(config.getPath());
-      builder.addPackage(config.getModuleName(), config.getSources(), config.getTarget());
+      builder.setCopyStrategy(CopyStrategy.of(config.getCopyStrategy()));
+      builder.setStreaming(Boolean.parseBoolean(config.getStreaming()));
+      if (config.getParallelism() != null && !config.getParallelism().trim().isEmpty()) {
+        builder.setParallelism(PackageExecutor.toNumber(config.getParallelism(), "Parallelism"));
+      }
+      if (config.getConcurrency() != null && !config.getConcurrency().trim().isEmpty()) {
+        builder.setConcurrency(PackageExecutor.toNumber(config.getConcurrency(), "Concurrent Packages"));
+      }
+      boolean hasModule = config.getModuleName() != null && !config.getModuleName().trim().isEmpty();
+      boolean hasModules = config.getModules() != null && !config.getModules().trim().isEmpty();
+      if (!hasModule && !hasModules) {
+        throw new IllegalArgumentException("Either 'Module Name' or 'Modules' must be defined");
+      }
+      if (hasModule) {
+        if (config.getSources() == null || config.getSources().trim().isEmpty()) {
+          throw new IllegalArgumentException(
+              String.format("The 'Sources' of module '%s' are not defined", config.getModuleName()));
+        }
+        builder.addPackage(config.getModuleName(), config.getSources(), config.getTarget());
+      }
+      if (hasModules) {
+        PackageExecutor.addPackages(builder, config.getModules());
+      }
       builder.build();
 
       return TaskResponse.success("Executed the build").toResponse();
@@ -98,4 +129,76 @@ public class PackageExecutor implements RequestHandler {
       return TaskResponse.failure(e.getMessage()).toResponse();
     }
   }
+
+  /**
+   * Parses a number of the configuration, that must be at least 1.
+   *
+   * @param value
+   * @param label
+   */
+  private static int toNumber(String value, String label) {
+    try {
+      int number = Integer.parseInt(value.trim());
+      if (number >= 1) {
+        return number;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new IllegalArgumentException(
+        String.format("The '%s' must be a number of at least 1, but is '%s'", label, value.trim()));
+  }
+
+  /**
+   * Adds the packages of a JSON list of module definitions. The sources can be defined as text or
+   * as list of lines.
+   *
+   * <pre>
+   * [
+   *   {
+   *     "module": "tol.$MODULE.app.web",
+   *     "source": [ "download/smartIO-Web.zip!smartio" ],
+   *     "target": "webapps/client"
+   *   }
+   * ]
+   * </pre>
+   *
+   * @param builder
+   * @param modules
+   */
+  private static void addPackages(PackageBuilder builder, String modules) {
+    JsonArray array = Json.createReader(new StringReader(modules)).readArray();
+    for (int index = 0; index < array.size(); index++) {
+      JsonValue value = array.get(index);
+      if (!(value instanceof JsonObject)) {
+        throw new IllegalArgumentException(String.format("The module #%d is not a JSON object", index + 1));
+      }
+
+      JsonObject module = (JsonObject) value;
+      if (!(module.get(PackageConfig.MODULE) instanceof JsonString)) {
+        throw new IllegalArgumentException(
+            String.format("The module #%d requires a text '%s'", index + 1, PackageConfig.MODULE));
+      }
+      String name = module.getString(PackageConfig.MODULE);
+
+      String sources;
+      JsonValue source = module.get(PackageConfig.SOURCE);
+      if (source instanceof JsonString) {
+        sources = ((JsonString) source).getString();
+      } else if ((source instanceof JsonArray) && ((JsonArray) source).stream().allMatch(JsonString.class::isInstance)) {
+        sources = ((JsonArray) source).getValuesAs(JsonString.class).stream().map(JsonString::getString)
+            .collect(Collectors.joining("\n"));
+      } else {
+        throw new IllegalArgumentException(String.format("The module '%s' requires a text or a list of texts as '%s'",
+            name, PackageConfig.SOURCE));
+      }
+
+      JsonValue target = module.get(PackageConfig.TARGET);
+      if ((target != null) && (target != JsonValue.NULL) && !(target instanceof JsonString)) {
+        throw new IllegalArgumentException(
+            String.format("The module '%s' requires a text as '%s'", name, PackageConfig.TARGET));
+      }
+      builder.addPackage(name, sources, module.getString(PackageConfig.TARGET, null));
+    }
+  }
 }
@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.task.qt.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * The {@link BuildManifest} records for each package and each source line the fingerprint of the
+ * inputs and the digest of the files produced in the data folder. A following build skips the
+ * source lines with unchanged inputs and removes the files, that are no longer produced. A package
+ * with an unchanged digest keeps the version and the release date of the previous build.
+ *
+ * <pre>
+ * {
+ *   "packages": {
+ *     "tol.module": {
+ *       "digest": "...",
+ *       "version": "1.2.3",
+ *       "date": "2020-04-01",
+ *       "sources": [
+ *         {
+ *           "source": "download/module.zip;web",
+ *           "date": "2020-04-01",
+ *           "digest": "...",
+ *           "inputs": [ { "path": "download/module.zip", "target": "web", "size": 1024, "modified": 0, "digest": "..." } ],
+ *           "outputs": { "web/index.html": "..." },
+ *           "parameters": [ { "VERSION": "1.2.3" } ]
+ *         }
+ *       ]
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+final class BuildManifest {
+
+  public static final String            NAME     = ".manifest.json";
+
+  private static final String           PACKAGES = "packages";
+  private static final String           SOURCES  = "sources";
+  private static final String           SOURCE   = "source";
+  private static final String           VERSION  = "version";
+  private static final String           DATE     = "date";
+  private static final String           INPUTS   = "inputs";
+  private static final String           OUTPUTS  = "outputs";
+  private static final String           PATH     = "path";
+  private static final String           TARGET   = "target";
+  private static final String           SIZE     = "size";
+  private static final String           MODIFIED = "modified";
+  private static final String           DIGEST   = "digest";
+  private static final String           PARAMS   = "parameters";
+
+
+  private final File                    file;
+  private final Path                    workingPath;
+  private final JsonObject              previous;
+  private final Map<String, JsonObject> packages = new TreeMap<>();
+
+  /**
+   * Constructs an instance of {@link BuildManifest}.
+   *
+   * @param file
+   * @param workingPath
+   * @param previous
+   */
+  private BuildManifest(File file, Path workingPath, JsonObject previous) {
+    this.file = file;
+    this.workingPath = workingPath;
+    this.previous = previous;
+  }
+
+  /**
+   * Get the package from the previous build.
+   *
+   * @param name
+   */
+  private JsonObject getPackage(String name) {
+    JsonValue value = this.previous.get(name);
+    return (value instanceof JsonObject) ? (JsonObject) value : null;
+  }
+
+  /**
+   * Get the records of the package from the previous build.
+   *
+   * @param name
+   */
+  private JsonArray getRecords(String name) {
+    JsonObject pkg = getPackage(name);
+    JsonValue value = (pkg == null) ? null : pkg.get(BuildManifest.SOURCES);
+    return (value instanceof JsonArray) ? (JsonArray) value : null;
+  }
+
+  /**
+   * Get the digest of the package from the previous build.
+   *
+   * @param name
+   */
+  public final String getDigest(String name) {
+    JsonObject pkg = getPackage(name);
+    return (pkg == null) ? null : pkg.getString(BuildManifest.DIGEST, null);
+  }
+
+  /**
+   * Get the version of the package from the previous build.
+   *
+   * @param name
+   */
+  public final String getVersion(String name) {
+    JsonObject pkg = getPackage(name);
+    return (pkg == null) ? null : pkg.getString(BuildManifest.VERSION, null);
+  }
+
+  /**
+   * Get the release date of the package from the previous build.
+   *
+   * @param name
+   */
+  public final LocalDate getReleaseDate(String name) {
+    JsonObject pkg = getPackage(name);
+    return (pkg == null) ? null : BuildManifest.getDate(pkg);
+  }
+
+  /**
+   * Get the record of the source line from the previous build.
+   *
+   * @param name
+   * @param source
+   */
+  public final JsonObject getRecord(String name, String source) {
+    JsonArray records = getRecords(name);
+    if (records != null) {
+      for (JsonObject record : records.getValuesAs(JsonObject.class)) {
+        if (source.equals(record.getString(BuildManifest.SOURCE, null))) {
+          return record;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the outputs of the package from the previous build.
+   *
+   * @param name
+   */
+  public final Set<String> getOutputs(String name) {
+    Set<String> outputs = new HashSet<>();
+    JsonArray records = getRecords(name);
+    if (records != null) {
+      for (JsonObject record : records.getValuesAs(JsonObject.class)) {
+        outputs.addAll(BuildManifest.getOutputs(record));
+      }
+    }
+    return outputs;
+  }
+
+  /**
+   * Removes the files of the package from the previous build, which haven't been produced by the
+   * current build. Empty directories are removed too.
+   *
+   * @param name
+   * @param outputs
+   * @param dataPath
+   */
+  public final void removeOutputs(String name, Set<String> outputs, Path dataPath) throws IOException {
+    for (String output : getOutputs(name)) {
+      if (outputs.contains(output)) {
+        continue;
+      }
+
+      Path path = dataPath.resolve(output);
+      Files.deleteIfExists(path);
+      for (Path parent = path.getParent(); (parent != null) && parent.startsWith(dataPath)
+          && !parent.equals(dataPath); parent = parent.getParent()) {
+        String[] files = parent.toFile().list();
+        if ((files == null) || (files.length > 0)) {
+          break;
+        }
+        Files.delete(parent);
+      }
+    }
+  }
+
+  /**
+   * Set the package for the current build.
+   *
+   * @param name
+   * @param digest
+   * @param version
+   * @param date
+   * @param records
+   */
+  public final synchronized void setPackage(String name, String digest, String version, LocalDate date,
+      JsonArray records) {
+    JsonObjectBuilder pkg = Json.createObjectBuilder();
+    pkg.add(BuildManifest.DIGEST, digest);
+    if (version != null) {
+      pkg.add(BuildManifest.VERSION, version);
+    }
+    if (date != null) {
+      pkg.add(BuildManifest.DATE, date.toString());
+    }
+    pkg.add(BuildManifest.SOURCES, records);
+    this.packages.put(name, pkg.build());
+  }
+
+  /**
+   * Returns <code>true</code> if the record of the previous build is still valid for the inputs
+   * and all outputs exist in the data folder. A record without the parameters of the matches is
+   * outdated.
+   *
+   * @param record
+   * @param inputs
+   * @param dataPath
+   */
+  public final boolean isUpToDate(JsonObject record, JsonArray inputs, Path dataPath) {
+    if ((record == null) || !inputs.equals(record.getJsonArray(BuildManifest.INPUTS))
+        || !(record.get(BuildManifest.PARAMS) instanceof JsonArray)) {
+      return false;
+    }
+    for (String output : BuildManifest.getOutputs(record)) {
+      if (!Files.exists(dataPath.resolve(output))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Calculates the fingerprint of the matched inputs, using the size and the last modification of
+   * all files.
+   *
+   * @param matchers
+   * @param target
+   */
+  public final JsonArray toInputs(List<PathMatcher> matchers, String target) throws IOException {
+    JsonArrayBuilder inputs = Json.createArrayBuilder();
+    for (PathMatcher matcher : matchers) {
+      Path path = matcher.getFile().toPath();
+      List<String> entries = new ArrayList<>();
+      long[] total = { 0, 0 };
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          long modified = attrs.lastModifiedTime().toMillis();
+          entries.add(path.relativize(file) + "\0" + attrs.size() + "\0" + modified);
+          total[0] += attrs.size();
+          total[1] = Math.max(total[1], modified);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      Collections.sort(entries);
+
+      JsonObjectBuilder input = Json.createObjectBuilder();
+      input.add(BuildManifest.PATH, BuildManifest.toName(this.workingPath.relativize(path)));
+      input.add(BuildManifest.TARGET, matcher.map(target));
+      input.add(BuildManifest.SIZE, total[0]);
+      input.add(BuildManifest.MODIFIED, total[1]);
+      input.add(BuildManifest.DIGEST, BuildManifest.digest(entries));
+      inputs.add(input);
+    }
+    return inputs.build();
+  }
+
+  /**
+   * Creates the record of a source line. The outputs without a digest haven't been copied, their
+   * digest is taken from the previous record or calculated from the file.
+   *
+   * @param source
+   * @param date
+   * @param inputs
+   * @param outputs
+   * @param previous
+   * @param dataPath
+   */
+  public final JsonObject toRecord(String source, LocalDate date, JsonArray inputs, Map<Path, String> outputs,
+      List<Map<String, String>> parameters, JsonObject previous, Path dataPath) throws IOException {
+    JsonObject digests = (previous == null) ? null : BuildManifest.getDigests(previous);
+    Map<String, String> files = new TreeMap<>();
+    for (Map.Entry<Path, String> output : outputs.entrySet()) {
+      String name = BuildManifest.toName(dataPath.relativize(output.getKey()));
+      String digest = output.getValue();
+      if ((digest == null) && (digests != null)) {
+        digest = digests.getString(name, null);
+      }
+      if (digest == null) {
+        digest = FileTreeCopying.digest(output.getKey());
+      }
+      files.put(name, digest);
+    }
+
+    JsonObjectBuilder names = Json.createObjectBuilder();
+    List<String> entries = new ArrayList<>();
+    files.forEach((name, digest) -> {
+      names.add(name, digest);
+      entries.add(name + "\0" + digest);
+    });
+
+    JsonObjectBuilder record = Json.createObjectBuilder();
+    record.add(BuildManifest.SOURCE, source);
+    if (date != null) {
+      record.add(BuildManifest.DATE, date.toString());
+    }
+    record.add(BuildManifest.DIGEST, BuildManifest.digest(entries));
+    record.add(BuildManifest.INPUTS, inputs);
+    record.add(BuildManifest.OUTPUTS, names);
+
+    JsonArrayBuilder params = Json.createArrayBuilder();
+    for (Map<String, String> values : parameters) {
+      JsonObjectBuilder param = Json.createObjectBuilder();
+      new TreeMap<>(values).forEach((n, v) -> {
+        if (v == null) {
+          param.addNull(n);
+        } else {
+          param.add(n, v);
+        }
+      });
+      params.add(param);
+    }
+    record.add(BuildManifest.PARAMS, params);
+    return record.build();
+  }
+
+  /**
+   * Calculates the digest of a package from the digests of the records.
+   *
+   * @param records
+   */
+  public static String toDigest(JsonArray records) throws IOException {
+    List<String> entries = new ArrayList<>();
+    for (JsonObject record : records.getValuesAs(JsonObject.class)) {
+      entries.add(record.getString(BuildManifest.DIGEST, ""));
+    }
+    return BuildManifest.digest(entries);
+  }
+
+  /**
+   * Writes the manifest of the current build. The packages of the previous build, that haven't
+   * been built by the current build, are kept for other tasks sharing the manifest.
+   */
+  public final synchronized void save() throws IOException {
+    JsonObjectBuilder packages = Json.createObjectBuilder();
+    this.previous.forEach((name, value) -> {
+      if (!this.packages.containsKey(name)) {
+        packages.add(name, value);
+      }
+    });
+    this.packages.forEach((name, pkg) -> packages.add(name, pkg));
+
+    File temp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+    this.file.getParentFile().mkdirs();
+    try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+      Json.createWriter(writer).writeObject(Json.createObjectBuilder().add(BuildManifest.PACKAGES, packages).build());
+    }
+    Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Get the release date of a record.
+   *
+   * @param record
+   */
+  public static LocalDate getDate(JsonObject record) {
+    String date = record.getString(BuildManifest.DATE, null);
+    return (date == null) ? null : LocalDate.parse(date);
+  }
+
+  /**
+   * Get the outputs of a record.
+   *
+   * @param record
+   */
+  public static List<String> getOutputs(JsonObject record) {
+    JsonObject digests = BuildManifest.getDigests(record);
+    return (digests == null) ? new ArrayList<>() : new ArrayList<>(digests.keySet());
+  }
+
+  /**
+   * Get the parameters of the matches of a record, in the order of the matches.
+   *
+   * @param record
+   */
+  public static List<Map<String, String>> getParameters(JsonObject record) {
+    List<Map<String, String>> parameters = new ArrayList<>();
+    for (JsonObject param : record.getJsonArray(BuildManifest.PARAMS).getValuesAs(JsonObject.class)) {
+      Map<String, String> values = new HashMap<>();
+      param.forEach((n, v) -> values.put(n, (v instanceof JsonString) ? ((JsonString) v).getString() : null));
+      parameters.add(values);
+    }
+    return parameters;
+  }
+
+  /**
+   * Get the digests of the outputs of a record.
+   *
+   * @param record
+   */
+  private static JsonObject getDigests(JsonObject record) {
+    JsonValue value = record.get(BuildManifest.OUTPUTS);
+    return (value instanceof JsonObject) ? (JsonObject) value : null;
+  }
+
+  /**
+   * Get the relative path with '/' as separator.
+   *
+   * @param path
+   */
+  private static String toName(Path path) {
+    return path.toString().replace('\\', '/'); // for windows matches
+  }
+
+  /**
+   * Calculates the SHA-256 digest of the entries.
+   *
+   * @param entries
+   */
+  private static String digest(List<String> entries) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    for (String entry : entries) {
+      digest.update(entry.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) '\n');
+    }
+
+    StringBuilder builder = new StringBuilder();
+    for (byte b : digest.digest()) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Loads the {@link BuildManifest} of the previous build. An unreadable manifest is ignored, all
+   * packages are build again.
+   *
+   * @param file
+   * @param workingDir
+   */
+  public static BuildManifest load(File file, File workingDir) {
+    JsonObject previous = JsonValue.EMPTY_JSON_OBJECT;
+    if (file.exists()) {
+      try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+        JsonObject json = Json.createReader(reader).readObject();
+        if (json.containsKey(BuildManifest.PACKAGES)) {
+          previous = json.getJsonObject(BuildManifest.PACKAGES);
+        }
+      } catch (IOException | JsonException | ClassCastException e) {
+        // Build all packages again
+      }
+    }
+    return new BuildManifest(file, workingDir.toPath(), previous);
+  }
+}
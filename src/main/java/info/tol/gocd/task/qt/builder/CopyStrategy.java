@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.task.qt.builder;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link CopyStrategy} defines how the files are transferred into the data folder of a
+ * package.
+ *
+ * <pre>
+ * - COPY:     Copies the files with their attributes
+ * - HARDLINK: Creates hard links to the source files, copies if not possible
+ * - REFLINK:  Creates copy-on-write clones where supported by the file system, copies otherwise
+ * - MOVE:     Moves the files from the source
+ * </pre>
+ */
+public enum CopyStrategy {
+
+  COPY,
+  HARDLINK,
+  REFLINK,
+  MOVE;
+
+  /**
+   * Get the {@link CopyStrategy} by its case insensitive name, defaults to {@link #COPY}.
+   *
+   * @param name
+   */
+  public static CopyStrategy of(String name) {
+    if ((name == null) || name.trim().isEmpty()) {
+      return CopyStrategy.COPY;
+    }
+
+    String value = name.trim().toUpperCase(Locale.ROOT);
+    for (CopyStrategy strategy : CopyStrategy.values()) {
+      if (strategy.name().equals(value)) {
+        return strategy;
+      }
+    }
+    throw new IllegalArgumentException(String.format("Unknown copy strategy '%s', allowed are %s", name.trim(),
+        Arrays.stream(CopyStrategy.values()).map(Enum::name).collect(Collectors.joining(", "))));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.task.qt.builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.UnaryOperator;
+
+/**
+ * The {@link FileRewriting} rewrites UTF-8 text files line by line, keeping the line endings. The
+ * result is written to a temporary file, that replaces the original file only if a line has been
+ * changed. Binary files and files, which are not valid UTF-8, are not touched.
+ */
+final class FileRewriting {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Constructs an instance of {@link FileRewriting}.
+   */
+  private FileRewriting() {}
+
+  /**
+   * Rewrites the file with the line mapper. Returns <code>true</code> if the file has been
+   * changed.
+   *
+   * @param file
+   * @param mapper
+   */
+  public static boolean rewrite(Path file, UnaryOperator<String> mapper) throws IOException {
+    if (!Files.isRegularFile(file) || FileRewriting.isBinary(file)) {
+      return false;
+    }
+
+    boolean changed = false;
+    Path temp = file.resolveSibling("." + file.getFileName() + ".tmp");
+    try {
+      try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8.newDecoder());
+          Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        char[] buffer = new char[FileRewriting.BUFFER_SIZE];
+        StringBuilder line = new StringBuilder();
+        for (int length = reader.read(buffer); length >= 0; length = reader.read(buffer)) {
+          int offset = 0;
+          for (int i = 0; i < length; i++) {
+            if (buffer[i] == '\n') {
+              line.append(buffer, offset, i + 1 - offset);
+              changed |= FileRewriting.write(writer, line.toString(), mapper);
+              line.setLength(0);
+              offset = i + 1;
+            }
+          }
+          line.append(buffer, offset, length - offset);
+        }
+        if (line.length() > 0) {
+          changed |= FileRewriting.write(writer, line.toString(), mapper);
+        }
+      } catch (CharacterCodingException e) {
+        return false;
+      }
+
+      if (changed) {
+        try {
+          Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+        } catch (UnsupportedOperationException e) {
+          // Not a POSIX file system
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      return changed;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Writes the mapped line, returns <code>true</code> if the line has been changed.
+   *
+   * @param writer
+   * @param line
+   * @param mapper
+   */
+  private static boolean write(Writer writer, String line, UnaryOperator<String> mapper) throws IOException {
+    String mapped = mapper.apply(line);
+    writer.write(mapped);
+    return !mapped.equals(line);
+  }
+
+  /**
+   * Returns <code>true</code> if the beginning of the file contains a NUL character.
+   *
+   * @param file
+   */
+  private static boolean isBinary(Path file) throws IOException {
+    byte[] buffer = new byte[FileRewriting.BUFFER_SIZE];
+    try (InputStream stream = Files.newInputStream(file)) {
+      int length = stream.read(buffer);
+      for (int i = 0; i < length; i++) {
+        if (buffer[i] == 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
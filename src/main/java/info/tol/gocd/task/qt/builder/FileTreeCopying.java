@@ -16,28 +16,53 @@
 package info.tol.gocd.task.qt.builder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * The {@link FileTreeCopying} copies a directory structure from source to the target path.
+ * The {@link FileTreeCopying} copies a directory structure from source to the target path. The
+ * copied files are hashed while they stream through, files that are not copied are identified by
+ * their size and last modification.
  */
 final class FileTreeCopying extends SimpleFileVisitor<Path> {
 
-  private final Path source;
-  private final Path target;
+  private static final int   BATCH_SIZE  = 32;
+  private static final int   BUFFER_SIZE = 64 * 1024;
 
 
-  private Instant instant;
+  private final Path         source;
+  private final Path         target;
+  private final CopyStrategy strategy;
+
+
+  private Instant            instant;
+  private Path               clone;
+  private Map<Path, String>  outputs;
+  private volatile boolean   linkable    = true;
 
   /**
    *
@@ -45,10 +70,12 @@ final class FileTreeCopying extends SimpleFileVisitor<Path> {
    *
    * @param source
    * @param target
+   * @param strategy
    */
-  private FileTreeCopying(Path source, Path target) {
+  private FileTreeCopying(Path source, Path target, CopyStrategy strategy) {
     this.source = source;
     this.target = target;
+    this.strategy = strategy;
   }
 
   /**
@@ -61,52 +88,375 @@ final class FileTreeCopying extends SimpleFileVisitor<Path> {
   }
 
   /**
-   * Resolves the path.
+   * Visit a directory.
    *
    * @param path
+   * @param attrs
    */
-  private final Instant toInstant(Path path) {
-    try {
-      BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
-      return attr.creationTime().toInstant();
-    } catch (Throwable ex) {}
-    return null;
+  @Override
+  public final FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+    createDirectory(path);
+    return FileVisitResult.CONTINUE;
   }
 
   /**
-   * Visit a directory.
+   * Visit a file.
    *
    * @param path
    * @param attrs
    */
   @Override
-  public final FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+  public final FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+    this.instant = FileTreeCopying.latest(this.instant, transfer(path, attrs));
+    return FileVisitResult.CONTINUE;
+  }
+
+  /**
+   * Creates the target directory for the source directory.
+   *
+   * @param path
+   */
+  private void createDirectory(Path path) throws IOException {
     Path dir = toPath(path);
     if (!Files.exists(dir)) {
       Files.createDirectory(dir);
     }
-    return FileVisitResult.CONTINUE;
   }
 
   /**
-   * Visit a file.
+   * Transfers a file to the target using the {@link CopyStrategy} and returns its last
+   * modification. Only copied files are hashed, linked, cloned or moved files are identified by
+   * their fingerprint.
    *
    * @param path
    * @param attrs
    */
-  @Override
-  public final FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-    Files.copy(path, toPath(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES,
+  private Instant transfer(Path path, BasicFileAttributes attrs) throws IOException {
+    String digest;
+    switch (this.strategy) {
+      case HARDLINK:
+        link(path, toPath(path), attrs);
+        digest = FileTreeCopying.fingerprint(attrs);
+        break;
+
+      case MOVE:
+        Files.move(path, toPath(path), StandardCopyOption.REPLACE_EXISTING);
+        digest = FileTreeCopying.fingerprint(attrs);
+        break;
+
+      case REFLINK:
+        // The clone replaces the target, instead of writing through a link of a previous build
+        if (!FileTreeCopying.isUpToDate(toPath(path), attrs)) {
+          Files.move(this.clone.resolve(this.source.relativize(path)), toPath(path),
+              StandardCopyOption.REPLACE_EXISTING);
+        }
+        digest = FileTreeCopying.fingerprint(attrs);
+        break;
+
+      default:
+        if (FileTreeCopying.isUpToDate(toPath(path), attrs)) {
+          digest = null; // Unchanged content, the digest is known by the previous build
+        } else if (attrs.isRegularFile()) {
+          digest = FileTreeCopying.copy(path, toPath(path), attrs);
+        } else {
+          FileTreeCopying.copy(path, toPath(path));
+          digest = FileTreeCopying.fingerprint(attrs);
+        }
+    }
+
+    if (this.outputs != null) {
+      this.outputs.put(toPath(path), digest);
+    }
+    return attrs.lastModifiedTime().toInstant();
+  }
+
+  /**
+   * Get the later of both instants.
+   *
+   * @param instant
+   * @param current
+   */
+  private static Instant latest(Instant instant, Instant current) {
+    return ((current != null) && ((instant == null) || current.isAfter(instant))) ? current : instant;
+  }
+
+  /**
+   * Creates a hard link to a regular file. Falls back to a copy, if the file system doesn't
+   * support hard links between source and target.
+   *
+   * @param path
+   * @param target
+   * @param attrs
+   */
+  private void link(Path path, Path target, BasicFileAttributes attrs) throws IOException {
+    if (this.linkable && attrs.isRegularFile()) {
+      try {
+        Files.deleteIfExists(target);
+        Files.createLink(target, path);
+        return;
+      } catch (IOException | UnsupportedOperationException e) {
+        this.linkable = false;
+      }
+    }
+    FileTreeCopying.copy(path, target);
+  }
+
+  /**
+   * Returns <code>true</code> if the target is a regular file with the same size and last
+   * modification time as the source, which has been copied by a previous build.
+   *
+   * @param target
+   * @param attrs
+   */
+  private static boolean isUpToDate(Path target, BasicFileAttributes attrs) {
+    try {
+      BasicFileAttributes current = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      return attrs.isRegularFile() && current.isRegularFile() && (current.size() == attrs.size())
+          && current.lastModifiedTime().equals(attrs.lastModifiedTime());
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Copies the content of a regular file and calculates the SHA-256 digest of the content. The last
+   * modification and the permissions are copied too.
+   *
+   * @param path
+   * @param target
+   * @param attrs
+   */
+  private static String copy(Path path, Path target, BasicFileAttributes attrs) throws IOException {
+    MessageDigest digest = FileTreeCopying.newDigest();
+
+    // The target might be a hard link, so it must be replaced instead of overwritten
+    Files.deleteIfExists(target);
+    try (InputStream stream = new DigestInputStream(Files.newInputStream(path), digest);
+        OutputStream output = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW)) {
+      byte[] buffer = new byte[FileTreeCopying.BUFFER_SIZE];
+      for (int length = stream.read(buffer); length >= 0; length = stream.read(buffer)) {
+        output.write(buffer, 0, length);
+      }
+    }
+
+    Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+    try {
+      Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(path));
+    } catch (UnsupportedOperationException e) {
+      // Not a POSIX file system
+    }
+    return FileTreeCopying.toHex(digest.digest());
+  }
+
+  /**
+   * Calculates the SHA-256 digest of the file content.
+   *
+   * @param path
+   */
+  public static String digest(Path path) throws IOException {
+    MessageDigest digest = FileTreeCopying.newDigest();
+    try (InputStream stream = Files.newInputStream(path)) {
+      byte[] buffer = new byte[FileTreeCopying.BUFFER_SIZE];
+      for (int length = stream.read(buffer); length >= 0; length = stream.read(buffer)) {
+        digest.update(buffer, 0, length);
+      }
+    }
+    return FileTreeCopying.toHex(digest.digest());
+  }
+
+  /**
+   * Get the fingerprint of a file, that has not been hashed, from its size and last modification.
+   *
+   * @param attrs
+   */
+  public static String fingerprint(BasicFileAttributes attrs) {
+    return attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+  }
+
+  /**
+   * Creates a SHA-256 {@link MessageDigest}.
+   */
+  private static MessageDigest newDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Get the hex representation of the bytes.
+   *
+   * @param bytes
+   */
+  private static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Copies the file with its attributes.
+   *
+   * @param path
+   * @param target
+   */
+  private static void copy(Path path, Path target) throws IOException {
+    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES,
         LinkOption.NOFOLLOW_LINKS);
+  }
 
-    Instant current = toInstant(path);
-    if ((this.instant == null) || current.isAfter(this.instant)) {
-      this.instant = current;
+  /**
+   * Clones the tree with <code>cp --reflink=auto</code> into a fresh directory next to the target,
+   * which creates copy-on-write clones on file systems like btrfs or XFS and copies otherwise. The
+   * cloned files are moved to the target afterwards, as <code>cp</code> would truncate existing
+   * targets. Returns the clone or <code>null</code> if the clone couldn't be created.
+   *
+   * @param source
+   * @param target
+   */
+  private static Path reflink(Path source, Path target) throws IOException {
+    Path temp = Files.createTempDirectory(target.toAbsolutePath().getParent(), ".reflink");
+    Path clone = temp.resolve("clone");
+    ProcessBuilder builder = new ProcessBuilder("cp", "-R", "-P", "--preserve=mode,timestamps", "--reflink=auto",
+        "-T", source.toString(), clone.toString());
+    builder.redirectErrorStream(true);
+    try {
+      Process process = builder.start();
+      try (InputStream stream = process.getInputStream()) {
+        byte[] buffer = new byte[1024];
+        while (stream.read(buffer) >= 0) {}
+      }
+      if (process.waitFor() == 0) {
+        return clone;
+      }
+    } catch (IOException e) {
+      // Copy the tree instead
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
-    return FileVisitResult.CONTINUE;
+    FileTreeCopying.delete(temp);
+    return null;
+  }
+
+  /**
+   * Deletes the file tree, without following symbolic links.
+   *
+   * @param path
+   */
+  private static void delete(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
   }
 
 
+  /**
+   * The {@link DirectoryTask} creates the target directory, copies the files in batches and
+   * processes the sub directories in parallel. The task returns the latest modification.
+   */
+  private class DirectoryTask extends RecursiveTask<Instant> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Path        path;
+
+    /**
+     * Constructs an instance of {@link DirectoryTask}.
+     *
+     * @param path
+     */
+    private DirectoryTask(Path path) {
+      this.path = path;
+    }
+
+    /**
+     * Processes the directory.
+     */
+    @Override
+    protected Instant compute() {
+      List<RecursiveTask<Instant>> tasks = new ArrayList<>();
+      try {
+        createDirectory(this.path);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.path)) {
+          for (Path child : stream) {
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+              tasks.add(new DirectoryTask(child));
+            } else {
+              files.add(child);
+            }
+            if (files.size() == FileTreeCopying.BATCH_SIZE) {
+              tasks.add(new FileTask(files));
+              files = new ArrayList<>();
+            }
+          }
+        }
+        if (!files.isEmpty()) {
+          tasks.add(new FileTask(files));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      Instant instant = null;
+      for (RecursiveTask<Instant> task : ForkJoinTask.invokeAll(tasks)) {
+        instant = FileTreeCopying.latest(instant, task.join());
+      }
+      return instant;
+    }
+  }
+
+  /**
+   * The {@link FileTask} copies a batch of files of a directory.
+   */
+  private class FileTask extends RecursiveTask<Instant> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Path>  files;
+
+    /**
+     * Constructs an instance of {@link FileTask}.
+     *
+     * @param files
+     */
+    private FileTask(List<Path> files) {
+      this.files = files;
+    }
+
+    /**
+     * Copies the files.
+     */
+    @Override
+    protected Instant compute() {
+      Instant instant = null;
+      try {
+        for (Path file : this.files) {
+          BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          instant = FileTreeCopying.latest(instant, transfer(file, attrs));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return instant;
+    }
+  }
+
   /**
    * Copy the file tree using the environment variables.
    *
@@ -115,8 +465,75 @@ final class FileTreeCopying extends SimpleFileVisitor<Path> {
    * @param environment
    */
   public static LocalDate copyFileTree(Path source, Path target) throws IOException {
-    FileTreeCopying visitor = new FileTreeCopying(source, target);
-    Files.walkFileTree(source, visitor);
+    return FileTreeCopying.copyFileTree(source, target, CopyStrategy.COPY);
+  }
+
+  /**
+   * Copy the file tree with the {@link CopyStrategy}.
+   *
+   * @param source
+   * @param target
+   * @param strategy
+   */
+  public static LocalDate copyFileTree(Path source, Path target, CopyStrategy strategy) throws IOException {
+    return FileTreeCopying.copyFileTree(source, target, strategy, 1);
+  }
+
+  /**
+   * Copy the file tree with the {@link CopyStrategy}. With a parallelism greater than 1 the
+   * directories are processed on a {@link ForkJoinPool}, each directory is created before its files
+   * are copied concurrently.
+   *
+   * @param source
+   * @param target
+   * @param strategy
+   * @param parallelism
+   */
+  public static LocalDate copyFileTree(Path source, Path target, CopyStrategy strategy, int parallelism)
+      throws IOException {
+    return FileTreeCopying.copyFileTree(source, target, strategy, parallelism, null);
+  }
+
+  /**
+   * Copy the file tree with the {@link CopyStrategy} and collects the digest of each target file.
+   * The digest is <code>null</code> for a file, that has been skipped because the target is up to
+   * date.
+   *
+   * @param source
+   * @param target
+   * @param strategy
+   * @param parallelism
+   * @param outputs
+   */
+  public static LocalDate copyFileTree(Path source, Path target, CopyStrategy strategy, int parallelism,
+      Map<Path, String> outputs) throws IOException {
+    Path clone = (strategy == CopyStrategy.REFLINK) ? FileTreeCopying.reflink(source, target) : null;
+    if ((strategy == CopyStrategy.REFLINK) && (clone == null)) {
+      strategy = CopyStrategy.COPY;
+    }
+
+    FileTreeCopying visitor = new FileTreeCopying(source, target, strategy);
+    visitor.clone = clone;
+    visitor.outputs = (outputs == null) ? null : Collections.synchronizedMap(outputs);
+    try {
+      if ((parallelism > 1) && Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+          visitor.instant = pool.invoke(visitor.new DirectoryTask(source));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        } finally {
+          pool.shutdown();
+        }
+      } else {
+        Files.walkFileTree(source, visitor);
+      }
+    } finally {
+      // The clones of unchanged files are discarded
+      if (clone != null) {
+        FileTreeCopying.delete(clone.getParent());
+      }
+    }
     return visitor.instant == null ? LocalDate.now()
         : LocalDateTime.ofInstant(visitor.instant, ZoneOffset.UTC).toLocalDate();
   }
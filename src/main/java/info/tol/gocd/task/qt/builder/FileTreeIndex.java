@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.task.qt.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+
+import info.tol.gocd.util.Environment;
+
+/**
+ * The {@link FileTreeIndex} is a sorted index of the relative paths of the working directory. The
+ * working directory is walked once, all source patterns are evaluated against the index. The
+ * separator '/' is sorted before any other character, so that the entries of a directory directly
+ * follow the directory itself and a matched sub tree can be skipped.
+ *
+ * Directories that are written after the index has been created, e.g. by the extraction of an
+ * archive, must be invalidated. The index can be shared by concurrent package builds.
+ */
+class FileTreeIndex {
+
+  private final Path                    workingPath;
+
+  private NavigableMap<String, Boolean> entries;
+
+  /**
+   * Constructs an instance of {@link FileTreeIndex}.
+   *
+   * @param workingDir
+   */
+  private FileTreeIndex(File workingDir) {
+    this.workingPath = workingDir.toPath();
+  }
+
+  /**
+   * Get the index, the working directory is walked on first access.
+   */
+  private NavigableMap<String, Boolean> getEntries() throws IOException {
+    if (this.entries == null) {
+      this.entries = new TreeMap<>(FileTreeIndex::compare);
+      scan(this.workingPath);
+    }
+    return this.entries;
+  }
+
+  /**
+   * Find all paths of the index that match the pattern. If a directory matches, its sub tree is
+   * skipped.
+   *
+   * @param environment
+   * @param pattern
+   */
+  public final synchronized List<PathMatcher> find(Environment environment, String pattern) throws IOException {
+    PathPattern regex = PathPattern.compile(pattern);
+    String prefix = regex.getPrefix();
+
+    String skip = null;
+    List<PathMatcher> mappers = new ArrayList<>();
+    for (Map.Entry<String, Boolean> entry : getEntries().tailMap(prefix, true).entrySet()) {
+      String path = entry.getKey();
+      if (!prefix.isEmpty() && !path.equals(prefix) && !path.startsWith(prefix + "/")) {
+        break;
+      } else if ((skip != null) && path.startsWith(skip)) {
+        continue;
+      }
+
+      Matcher matcher = regex.matcher(path);
+      if (matcher.find()) {
+        Environment e = environment.clone(Environment.getParameters(matcher, regex.getGroupNames()));
+        mappers.add(new PathMatcher(this.workingPath.resolve(path).toFile(), e));
+        skip = entry.getValue() ? path + "/" : null;
+      } else {
+        // Skip directories that can't contain a match
+        skip = (entry.getValue() && !regex.isPrefix(path)) ? path + "/" : null;
+      }
+    }
+    return mappers;
+  }
+
+  /**
+   * Invalidates the directory, which has been changed after the index was created. The sub tree of
+   * the directory is scanned again.
+   *
+   * @param directory
+   */
+  public final synchronized void invalidate(File directory) throws IOException {
+    if (this.entries == null) {
+      return;
+    }
+
+    Path path = directory.toPath();
+    String name = FileTreeIndex.toName(this.workingPath.relativize(path));
+    Iterator<String> iterator = this.entries.tailMap(name, true).keySet().iterator();
+    while (iterator.hasNext()) {
+      String entry = iterator.next();
+      if (!entry.equals(name) && !entry.startsWith(name + "/")) {
+        break;
+      }
+      iterator.remove();
+    }
+
+    // Add the parent directories, they might be created by the extraction
+    for (Path parent = path.getParent(); (parent != null) && parent.startsWith(this.workingPath)
+        && !parent.equals(this.workingPath); parent = parent.getParent()) {
+      this.entries.put(FileTreeIndex.toName(this.workingPath.relativize(parent)), true);
+    }
+    if (Files.exists(path)) {
+      scan(path);
+    }
+  }
+
+  /**
+   * Adds the sub tree of the path to the index.
+   *
+   * @param path
+   */
+  private void scan(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        add(dir, true);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        add(file, attrs.isDirectory());
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Adds the path to the index.
+   *
+   * @param path
+   * @param directory
+   */
+  private void add(Path path, boolean directory) {
+    if (!path.equals(this.workingPath)) {
+      this.entries.put(FileTreeIndex.toName(this.workingPath.relativize(path)), directory);
+    }
+  }
+
+  /**
+   * Get the relative path with '/' as separator.
+   *
+   * @param path
+   */
+  private static String toName(Path path) {
+    return path.toString().replace('\\', '/'); // for windows matches
+  }
+
+  /**
+   * Compares the paths, where the separator '/' is lower than any other character.
+   *
+   * @param path1
+   * @param path2
+   */
+  private static int compare(String path1, String path2) {
+    int length = Math.min(path1.length(), path2.length());
+    for (int i = 0; i < length; i++) {
+      char c1 = path1.charAt(i);
+      char c2 = path2.charAt(i);
+      if (c1 != c2) {
+        return (c1 == '/') ? -1 : (c2 == '/') ? 1 : c1 - c2;
+      }
+    }
+    return path1.length() - path2.length();
+  }
+
+  /**
+   * Constructs an instance of {@link FileTreeIndex} for the working directory.
+   *
+   * @param workingDir
+   */
+  public static FileTreeIndex of(File workingDir) {
+    return new FileTreeIndex(workingDir);
+  }
+}
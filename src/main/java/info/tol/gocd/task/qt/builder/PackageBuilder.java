@@ -16,18 +16,22 @@
 package info.tol.gocd.task.qt.builder;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import info.tol.gocd.task.qt.Constants;
 import info.tol.gocd.util.Environment;
+import info.tol.gocd.util.archive.ArchiveCache;
 
 /**
  * The {@link PackageBuilder} is an utility class that creates the package structure for the
@@ -51,7 +55,15 @@ public class PackageBuilder {
 
 
   private String                  packagePath;
-  private final List<PackageData> data = new ArrayList<>();
+  private FileTreeIndex           index;
+  private BuildManifest           manifest;
+  private File[]                  definitions;
+  private ArchiveCache            cache;
+  private CopyStrategy            strategy    = CopyStrategy.COPY;
+  private int                     parallelism = Runtime.getRuntime().availableProcessors();
+  private int                     concurrency = 1;
+  private boolean                 streaming;
+  private final List<PackageData> data        = new ArrayList<>();
 
   /**
    * Constructs an instance of {@link PackageBuilder} for the working directory.
@@ -89,6 +101,111 @@ public class PackageBuilder {
     this.packagePath = packagePath;
   }
 
+  /**
+   * Gets the {@link CopyStrategy} used to transfer the files into the data folder.
+   */
+  protected final CopyStrategy getCopyStrategy() {
+    return this.strategy;
+  }
+
+  /**
+   * Set the {@link CopyStrategy} used to transfer the files into the data folder.
+   *
+   * @param strategy
+   */
+  public final void setCopyStrategy(CopyStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  /**
+   * Gets the number of threads used to extract and copy the package data.
+   */
+  protected final int getParallelism() {
+    return this.parallelism;
+  }
+
+  /**
+   * Set the number of threads used to extract and copy the package data.
+   *
+   * @param parallelism
+   */
+  public final void setParallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Set the number of packages, that are built concurrently.
+   *
+   * @param concurrency
+   */
+  public final void setConcurrency(int concurrency) {
+    this.concurrency = Math.max(1, concurrency);
+  }
+
+  /**
+   * Returns <code>true</code> if the archives are streamed directly into the data folder.
+   */
+  protected final boolean isStreaming() {
+    return this.streaming;
+  }
+
+  /**
+   * Set <code>true</code> to stream the archives directly into the data folder, instead of
+   * extracting them next to the archive and copying the extracted files.
+   *
+   * @param streaming
+   */
+  public final void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Gets the {@link FileTreeIndex} of the working directory for the current build.
+   */
+  protected final FileTreeIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Gets the {@link BuildManifest} of the current build.
+   */
+  protected final BuildManifest getManifest() {
+    return this.manifest;
+  }
+
+  /**
+   * Gets the {@link ArchiveCache} for the extracted archives, if configured by the environment
+   * variable {@link Constants#ENV_CACHE}. The size limit is defined in MB by
+   * {@link Constants#ENV_CACHE_SIZE}.
+   */
+  protected final synchronized ArchiveCache getCache() {
+    if ((this.cache == null) && this.environment.isSet(Constants.ENV_CACHE)) {
+      long size = this.environment.isSet(Constants.ENV_CACHE_SIZE)
+          ? PackageBuilder.toCacheSize(this.environment.get(Constants.ENV_CACHE_SIZE))
+          : Constants.CACHE_SIZE;
+      this.cache = ArchiveCache.of(new File(this.environment.get(Constants.ENV_CACHE)), size * 1024 * 1024);
+    }
+    return this.cache;
+  }
+
+  /**
+   * Parses the size of the cache in MB, that must be at least 1.
+   *
+   * @param value
+   */
+  private static long toCacheSize(String value) {
+    try {
+      long size = Long.parseLong(value.trim());
+      if ((size >= 1) && (size <= (Long.MAX_VALUE >> 20))) {
+        return size;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new IllegalArgumentException(String.format("The '%s' must be a number of at least 1, but is '%s'",
+        Constants.ENV_CACHE_SIZE, value.trim()));
+  }
+
   /**
    * Add a package with the location of the package data.
    *
@@ -122,56 +239,118 @@ public class PackageBuilder {
   }
 
   /**
-   * Copy all package definitions of the module and its dependencies.
+   * Collects the package definitions of the module and its dependencies. Each definition is copied
+   * by a single task, that is shared by all packages depending on it.
    *
    * @param data
+   * @param tasks
    */
-  private void buildDependencies(PackageData data) throws IOException {
-    Map<String, String> modules = new HashMap<>();
-
-    // Collect depending packages
-    for (File file : getSourcePath().toFile().listFiles()) {
+  private List<FutureTask<Void>> collectDependencies(PackageData data, Map<String, FutureTask<Void>> tasks) {
+    List<FutureTask<Void>> dependencies = new ArrayList<>();
+    for (File file : this.definitions) {
       String moduleName = data.remap(file.getName());
       File location = new File(getTargetPath().toFile(), moduleName);
-      if (data.getName().contains(moduleName) && !location.exists()) {
-        modules.put(file.getName(), moduleName);
+      if (data.getName().contains(moduleName) && (tasks.containsKey(moduleName) || !location.exists())) {
+        dependencies.add(tasks.computeIfAbsent(moduleName, k -> new FutureTask<>(() -> {
+          buildDependency(data, file.getName(), moduleName);
+          return null;
+        })));
       }
     }
+    return dependencies;
+  }
 
-    // Process defined packages
-    for (Map.Entry<String, String> module : modules.entrySet()) {
-      Path sourcePath = getSourcePath().resolve(module.getKey());
-      Path targetPath = getTargetPath().resolve(module.getValue());
-
-      targetPath.toFile().mkdirs();
-      FileTreeCopying.copyFileTree(sourcePath, targetPath);
-      File meta = new File(targetPath.toFile(), PackageBuilder.META);
-      for (File file : meta.listFiles()) {
-        String content = new String(Files.readAllBytes(file.toPath()));
-        try (Writer writer = new FileWriter(file)) {
-          writer.write(data.remap(content));
-        }
-      }
+  /**
+   * Copy the package definition of a module.
+   *
+   * @param data
+   * @param source
+   * @param moduleName
+   */
+  private void buildDependency(PackageData data, String source, String moduleName) throws IOException {
+    Path sourcePath = getSourcePath().resolve(source);
+    Path targetPath = getTargetPath().resolve(moduleName);
+
+    targetPath.toFile().mkdirs();
+    FileTreeCopying.copyFileTree(sourcePath, targetPath);
+    File meta = new File(targetPath.toFile(), PackageBuilder.META);
+    for (File file : meta.listFiles()) {
+      FileRewriting.rewrite(file.toPath(), data.toContentMapper());
     }
   }
 
+  /**
+   * Builds the package, after the package definitions it depends on are copied.
+   *
+   * @param data
+   * @param dependencies
+   */
+  private Void buildPackage(PackageData data, List<FutureTask<Void>> dependencies) throws Exception {
+    for (FutureTask<Void> task : dependencies) {
+      task.run();
+      PackageBuilder.await(task);
+    }
+    data.build(getTargetPath().toFile(), this.environment);
+    return null;
+  }
+
   /**
    * Build a package structure for the {@link PackagesBuilder}. The method expects a source
    * file/folder, the Version information and the relative installation path.
    *
-   * Update the meta/package.xml with the actual version and release date.
+   * Update the meta/package.xml with the actual version and release date. With a concurrency
+   * greater than 1 the packages are built in parallel.
    *
    * @param source
    * @param version
    * @param relativePath
    */
   public final void build() throws Exception {
+    this.index = FileTreeIndex.of(this.workingDir);
+    this.manifest = BuildManifest.load(getTargetPath().resolve(BuildManifest.NAME).toFile(), this.workingDir);
+    this.definitions = getSourcePath().toFile().listFiles();
+
+    Map<String, FutureTask<Void>> modules = new HashMap<>();
+    Map<PackageData, List<FutureTask<Void>>> dependencies = new LinkedHashMap<>();
     for (PackageData data : packageData()) {
-      buildDependencies(data);
+      dependencies.put(data, collectDependencies(data, modules));
     }
 
-    for (PackageData data : packageData()) {
-      data.build(getTargetPath().toFile(), this.environment);
+    if ((this.concurrency > 1) && (dependencies.size() > 1)) {
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.concurrency, dependencies.size()));
+      try {
+        List<Future<Void>> futures = new ArrayList<>();
+        dependencies.forEach((d, t) -> futures.add(executor.submit(() -> buildPackage(d, t))));
+        for (Future<Void> future : futures) {
+          PackageBuilder.await(future);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    } else {
+      for (List<FutureTask<Void>> tasks : dependencies.values()) {
+        for (FutureTask<Void> task : tasks) {
+          task.run();
+          PackageBuilder.await(task);
+        }
+      }
+      for (PackageData data : dependencies.keySet()) {
+        data.build(getTargetPath().toFile(), this.environment);
+      }
+    }
+    this.manifest.save();
+  }
+
+  /**
+   * Waits for the task and throws its failure.
+   *
+   * @param future
+   */
+  private static void await(Future<?> future) throws Exception {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
     }
   }
 
@@ -17,15 +17,34 @@ package info.tol.gocd.task.qt.builder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
 import info.tol.gocd.util.Environment;
 import info.tol.gocd.util.Version;
 import info.tol.gocd.util.archive.Archive;
+import info.tol.gocd.util.archive.ArchiveCache;
+import info.tol.gocd.util.archive.ArchiveMapper;
 
 /**
  * The {@link PackageData} provides information about the data/ folder of a package. The
@@ -34,18 +53,18 @@ import info.tol.gocd.util.archive.Archive;
  */
 final class PackageData {
 
-  private static final Pattern ARCHIVES = Pattern.compile("(([^#]+)(?:\\.zip|\\.tar(?:\\.gz)?|\\.war))(?:[!#](.+))?");
+  private static final Pattern ARCHIVES = Pattern.compile("(([^#]+)(?:\\.zip|\\.tar(?:\\.gz|\\.zst|\\.xz|\\.bz2)?|\\.war))(?:[!#](.+))?");
   private static final Pattern REPLACER = Pattern.compile("^([^/]*)/([^/]+)/([^/]+)/(.*)$");
   private static final Pattern RELEASE  = Pattern.compile("(?:\\$\\{|\\{\\{\\$)RELEASE;([0.-]+)\\}\\}?");
 
 
-  private final String      name;
-  private final String      module;
-  private final String      source;
-  private final String      target;
+  private final String         name;
+  private final String         source;
+  private final String         target;
 
-  private final File        workingDir;
-  private final Environment environment;
+  private final File           workingDir;
+  private final PackageBuilder builder;
+  private final Remapper       remapper;
 
   /**
    * Constructs an instance of {@link PackageData}.
@@ -57,11 +76,11 @@ final class PackageData {
    */
   public PackageData(String name, String source, String target, PackageBuilder builder) {
     this.name = PackageData.toName(name, builder.getEnvironment());
-    this.module = name;
     this.source = source;
     this.target = target;
     this.workingDir = builder.getWorkingDir();
-    this.environment = builder.getEnvironment();
+    this.builder = builder;
+    this.remapper = Remapper.of(name, builder.getEnvironment());
   }
 
   /**
@@ -85,33 +104,24 @@ final class PackageData {
    * @param data
    */
   public String remap(String data) {
-    Matcher matcher = PackageData.REPLACER.matcher(this.module);
-    if (!matcher.find()) {
-      return data;
-    }
-
-    String pattern = String.format("%s(%s)", matcher.group(1).replace(".", "\\."), matcher.group(2));
-    String value = this.environment.replaceByPattern(matcher.group(3));
-    Version version = Version.parse(value);
+    return (this.remapper == null) ? data : this.remapper.remap(data, true);
+  }
 
-    matcher = PackageData.RELEASE.matcher(data);
-    if (matcher.find()) {
-      data = matcher.replaceFirst(version.toString(matcher.group(1)));
+  /**
+   * Creates a line mapper to remove the pattern from the content of a file. Like {@link #remap},
+   * only the first release token of the file is replaced.
+   */
+  public final UnaryOperator<String> toContentMapper() {
+    if (this.remapper == null) {
+      return UnaryOperator.identity();
     }
 
-    data = this.environment.replaceByPattern(data);
-    value = value.replaceAll("[.-]", "");
-
-    int offset = 0;
-    StringBuffer buffer = new StringBuffer();
-    matcher = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(data);
-    while (matcher.find()) {
-      buffer.append(data.substring(offset, matcher.start(1)));
-      buffer.append(value);
-      offset = matcher.end(1);
-    }
-    buffer.append(data.substring(offset, data.length()));
-    return buffer.toString();
+    boolean[] released = { false };
+    return line -> {
+      boolean release = !released[0] && PackageData.RELEASE.matcher(line).find();
+      released[0] |= release;
+      return this.remapper.remap(line, release);
+    };
   }
 
   /**
@@ -146,7 +156,20 @@ final class PackageData {
   }
 
   /**
-   * Build the /data folder for the package.
+   * Get the later of both dates.
+   *
+   * @param date
+   * @param current
+   */
+  private static LocalDate latest(LocalDate date, LocalDate current) {
+    return ((current != null) && ((date == null) || date.isBefore(current))) ? current : date;
+  }
+
+  /**
+   * Build the /data folder for the package. Source lines with unchanged inputs since the previous
+   * build are skipped, files that are no longer produced are removed. The release date is the
+   * latest modification of the package content, a package with unchanged content keeps the
+   * version and the release date of the previous build.
    *
    * @param workingDir
    * @param environment
@@ -156,50 +179,339 @@ final class PackageData {
     Environment env = new Environment();
     LocalDate releaseDate = null;
 
-    for (String source : sources.split("\n")) {
+    Path workingPath = workingDir.toPath().resolve(getName()).resolve(PackageBuilder.DATA);
+    BuildManifest manifest = this.builder.getManifest();
+    JsonArrayBuilder records = Json.createArrayBuilder();
+    Set<String> outputs = new HashSet<>();
+
+    for (String line : sources.split("\n")) {
+      String source = line;
       String suffix = null;
       if (source.contains(";")) {
         suffix = source.substring(source.indexOf(';') + 1);
         source = source.substring(0, source.indexOf(';'));
       }
 
-      // Check archives that can be uncompressed (.zip, .tar, .tar.gz, .war)
+      // Check archives that can be uncompressed (.zip, .tar, .tar.gz, .tar.zst, .tar.xz, .tar.bz2, .war)
       Matcher match = PackageData.ARCHIVES.matcher(source);
-      if (match.find()) {
-        for (PathMatcher matcher : PathMatcher.of(getWorkingDir(), environment, match.group(1))) {
-          Archive.of(matcher.getFile()).extract();
-        }
-        source = match.group(2);
+      boolean isArchive = match.find();
+      List<PathMatcher> matchers =
+          PathMatcher.of(this.builder.getIndex(), environment, isArchive ? match.group(1) : source);
+
+      // Skip the source line, if the inputs are unchanged
+      JsonArray inputs = manifest.toInputs(matchers, getTarget(suffix));
+      JsonObject record = manifest.getRecord(getName(), line);
+      if (manifest.isUpToDate(record, inputs, workingPath)) {
+        // Restore the parameters of the matches, found when the line was built
+        BuildManifest.getParameters(record).forEach(p -> env.add(environment.clone(p)));
+        releaseDate = PackageData.latest(releaseDate, BuildManifest.getDate(record));
+        outputs.addAll(BuildManifest.getOutputs(record));
+        records.add(record);
+        continue;
+      }
+
+      LocalDate lineDate = null;
+      Map<Path, String> produced = new HashMap<>();
+      List<Environment> matches = new ArrayList<>();
+      if (isArchive) {
+        // The source inside of the extracted directory of the archive
+        String extracted = match.group(2);
         if (match.group(3) != null) {
-          source += "/" + match.group(3);
+          extracted += "/" + match.group(3);
         }
-      }
 
-      Path workingPath = workingDir.toPath().resolve(getName()).resolve(PackageBuilder.DATA);
-      for (PathMatcher matcher : PathMatcher.of(getWorkingDir(), environment, source)) {
-        String target = getTarget(suffix);
-        if (target.isEmpty() && !matcher.getFile().isDirectory()) {
-          target = matcher.getFile().getName();
+        if (this.builder.isStreaming()) {
+          // Stream the entries directly to the data folder
+          for (PathMatcher matcher : matchers) {
+            Archive archive = Archive.of(matcher.getFile()).setParallelism(this.builder.getParallelism());
+            String root = getWorkingDir().toPath().relativize(archive.getDirectory().toPath()).toString();
+            EntryMapper mapper = new EntryMapper(root.replace('\\', '/'), extracted, getTarget(suffix), environment);
+            workingPath.toFile().mkdirs();
+            List<Path> files = new ArrayList<>();
+            Map<File, String> digests = new HashMap<>();
+            archive.setDigests(digests);
+            LocalDateTime dateTime = archive.extract(workingPath.toFile(), (name, directory) -> {
+              String mapped = mapper.map(name, directory);
+              if ((mapped != null) && !directory) {
+                files.add(workingPath.resolve(mapped));
+              }
+              return mapped;
+            });
+            for (Path file : files) {
+              // The content of a file has been hashed while it was written, a symbolic link may
+              // point outside of the archive or to a filtered entry
+              String digest = digests.get(file.toFile());
+              if (digest == null) {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                digest = FileTreeCopying.fingerprint(attrs);
+              }
+              produced.put(file, digest);
+            }
+            mapper.getEnvironments().forEach(matches::add);
+
+            LocalDate date = (dateTime == null) ? LocalDate.now() : dateTime.toLocalDate();
+            lineDate = PackageData.latest(lineDate, date);
+          }
+        } else {
+          // Extract the archives next to them or through the cache, and copy the extracted files
+          ArchiveCache cache = this.builder.getCache();
+          for (PathMatcher matcher : matchers) {
+            Archive archive = Archive.of(matcher.getFile()).setParallelism(this.builder.getParallelism());
+            if (cache == null) {
+              archive.extract(Archive.toFilter(match.group(3)));
+            } else {
+              cache.extract(archive, match.group(3));
+            }
+            this.builder.getIndex().invalidate(archive.getDirectory());
+          }
+          matchers = PathMatcher.of(this.builder.getIndex(), environment, extracted);
+          isArchive = false;
         }
+      }
+
+      if (!isArchive) {
+        for (PathMatcher matcher : matchers) {
+          String target = getTarget(suffix);
+          if (target.isEmpty() && !matcher.getFile().isDirectory()) {
+            target = matcher.getFile().getName();
+          }
 
-        // Copy the data to the build
-        Path path = workingPath.resolve(matcher.map(target));
-        path.toFile().getParentFile().mkdirs();
-        LocalDate date = FileTreeCopying.copyFileTree(matcher.getFile().toPath(), path);
-        env.add(matcher.getEnvironment());
+          // Copy the data to the build
+          Path path = workingPath.resolve(matcher.map(target));
+          path.toFile().getParentFile().mkdirs();
+          CopyStrategy strategy = this.builder.getCopyStrategy();
+          LocalDate date = FileTreeCopying.copyFileTree(matcher.getFile().toPath(), path, strategy,
+              this.builder.getParallelism(), produced);
+          matches.add(matcher.getEnvironment());
+          lineDate = PackageData.latest(lineDate, date);
+        }
+      }
 
-        if (releaseDate == null || releaseDate.isBefore(date))
-          releaseDate = date;
+      List<Map<String, String>> parameters = new ArrayList<>();
+      for (Environment e : matches) {
+        env.add(e);
+        parameters.add(e.getParameters());
       }
+      record = manifest.toRecord(line, lineDate, inputs, produced, parameters, record, workingPath);
+      releaseDate = PackageData.latest(releaseDate, lineDate);
+      outputs.addAll(BuildManifest.getOutputs(record));
+      records.add(record);
     }
 
-    // TODO Release date should be calculated.
-    if (releaseDate == null)
+    // Moved sources can't be copied again, so the files of the previous build are kept
+    if (this.builder.getCopyStrategy() != CopyStrategy.MOVE) {
+      manifest.removeOutputs(getName(), outputs, workingPath);
+    }
+    if (releaseDate == null) {
       releaseDate = LocalDate.now();
+    }
 
-    // Change the package info
+    // Change the package info, keeping the release of an unchanged package
+    JsonArray packageRecords = records.build();
+    String digest = BuildManifest.toDigest(packageRecords);
     PackageInfo info = new PackageInfo(env);
+    if (digest.equals(manifest.getDigest(getName()))) {
+      info.setRelease(manifest.getVersion(getName()), manifest.getReleaseDate(getName()));
+    }
     info.updatePackageInfo(getName(), releaseDate, workingDir);
+    manifest.setPackage(getName(), digest, info.getVersion(), info.getReleaseDate(), packageRecords);
+  }
+
+  /**
+   * The {@link EntryMapper} resolves the source pattern on the entries of an archive, like a
+   * {@link PathMatcher} on the extracted directory of the archive. The first directory or file on
+   * the path of an entry, that matches the pattern, is mapped to the target with the parameters of
+   * the match.
+   */
+  private static class EntryMapper implements ArchiveMapper {
+
+    private final String                   directory;
+    private final PathPattern              pattern;
+    private final String                   target;
+    private final Environment              environment;
+
+    private final Map<String, Environment> matches  = new LinkedHashMap<>();
+    private final Map<String, Boolean>     prefixes = new HashMap<>();
+
+    /**
+     * Constructs an instance of {@link EntryMapper}.
+     *
+     * @param directory
+     * @param pattern
+     * @param target
+     * @param environment
+     */
+    private EntryMapper(String directory, String pattern, String target, Environment environment) {
+      this.directory = directory;
+      this.pattern = PathPattern.compile(pattern);
+      this.target = target;
+      this.environment = environment;
+    }
+
+    /**
+     * Gets the parameters of the matches.
+     */
+    public final Iterable<Environment> getEnvironments() {
+      return this.matches.values();
+    }
 
+    @Override
+    public final String map(String name, boolean directory) {
+      int end = 0;
+      while (true) {
+        String path = name.substring(0, end);
+        Environment env = this.matches.containsKey(path) ? this.matches.get(path) : match(path);
+        if (env != null) {
+          return toTarget(env, name, end, directory);
+        } else if ((end == name.length()) || !isPrefix(path)) {
+          return null;
+        }
+
+        end = name.indexOf('/', (end == 0) ? 0 : end + 1);
+        end = (end < 0) ? name.length() : end;
+      }
+    }
+
+    /**
+     * Matches the path inside of the archive, the parameters of a match are kept for the following
+     * entries.
+     *
+     * @param path
+     */
+    private Environment match(String path) {
+      Matcher matcher = this.pattern.matcher(toLocation(path));
+      if (!matcher.find()) {
+        return null;
+      }
+
+      Environment env = this.environment.clone(Environment.getParameters(matcher, this.pattern.getGroupNames()));
+      this.matches.put(path, env);
+      return env;
+    }
+
+    /**
+     * Returns <code>true</code> if the directory inside of the archive might contain a match.
+     *
+     * @param path
+     */
+    private boolean isPrefix(String path) {
+      return this.prefixes.computeIfAbsent(path, p -> this.pattern.isPrefix(toLocation(p)));
+    }
+
+    /**
+     * Get the location of the path inside of the archive, relative to the working directory.
+     *
+     * @param path
+     */
+    private String toLocation(String path) {
+      return path.isEmpty() ? this.directory : this.directory + "/" + path;
+    }
+
+    /**
+     * Maps the entry below the matching path to the target.
+     *
+     * @param env
+     * @param name
+     * @param end
+     * @param directory
+     */
+    private String toTarget(Environment env, String name, int end, boolean directory) {
+      String location = env.replaceByPattern(this.target);
+      String relative = (end == 0) ? name : name.substring(Math.min(end + 1, name.length()));
+      if (relative.isEmpty()) {
+        // The entry itself is selected, a file keeps its name without explicit target
+        if (directory || !location.isEmpty()) {
+          return location;
+        }
+        return name.substring(name.lastIndexOf('/') + 1);
+      }
+      return location.isEmpty() ? relative : location + "/" + relative;
+    }
+  }
+
+  /**
+   * The {@link Remapper} replaces the module pattern in names and contents of the package
+   * definitions. The pattern and the value are resolved once for the package, the version is
+   * parsed on the first release token.
+   */
+  private static class Remapper {
+
+    private final Environment environment;
+    private final Pattern     pattern;
+    private final String      release;
+    private final String      value;
+
+    private Version           version;
+
+    /**
+     * Constructs an instance of {@link Remapper}.
+     *
+     * @param environment
+     * @param pattern
+     * @param release
+     * @param value
+     */
+    private Remapper(Environment environment, Pattern pattern, String release, String value) {
+      this.environment = environment;
+      this.pattern = pattern;
+      this.release = release;
+      this.value = value;
+    }
+
+    /**
+     * Gets the {@link Version} of the module, parsed on first use.
+     */
+    private synchronized Version getVersion() {
+      if (this.version == null) {
+        this.version = Version.parse(this.release);
+      }
+      return this.version;
+    }
+
+    /**
+     * Removes the pattern from the data, optionally replacing the first release token.
+     *
+     * @param data
+     * @param release
+     */
+    private String remap(String data, boolean release) {
+      Matcher matcher = PackageData.RELEASE.matcher(data);
+      if (release && matcher.find()) {
+        data = matcher.replaceFirst(getVersion().toString(matcher.group(1)));
+      }
+
+      data = this.environment.replaceByPattern(data);
+
+      int offset = 0;
+      StringBuffer buffer = new StringBuffer();
+      matcher = this.pattern.matcher(data);
+      while (matcher.find()) {
+        buffer.append(data.substring(offset, matcher.start(1)));
+        buffer.append(this.value);
+        offset = matcher.end(1);
+      }
+      buffer.append(data.substring(offset, data.length()));
+      return buffer.toString();
+    }
+
+    /**
+     * Creates the {@link Remapper} for the module, or <code>null</code> if the module has no
+     * pattern.
+     *
+     * @param module
+     * @param environment
+     */
+    private static Remapper of(String module, Environment environment) {
+      Matcher matcher = PackageData.REPLACER.matcher(module);
+      if (!matcher.find()) {
+        return null;
+      }
+
+      String pattern = String.format("%s(%s)", matcher.group(1).replace(".", "\\."), matcher.group(2));
+      String value = environment.replaceByPattern(matcher.group(3));
+      return new Remapper(environment, Pattern.compile(pattern, Pattern.CASE_INSENSITIVE), value,
+          value.replaceAll("[.-]", ""));
+    }
   }
 }
@@ -17,22 +17,24 @@ package info.tol.gocd.task.qt.builder;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import info.tol.gocd.task.qt.Constants;
@@ -57,13 +59,20 @@ import info.tol.gocd.util.Version;
 class PackageInfo {
 
 
-  private static final String VERSION      = "Version";
-  private static final String RELEASE_DATE = "ReleaseDate";
+  private static final String           VERSION      = "Version";
+  private static final String           RELEASE_DATE = "ReleaseDate";
 
-  private static final Path   PACKAGE      = Paths.get("meta", "package.xml");
+  private static final Path             PACKAGE      = Paths.get("meta", "package.xml");
 
+  private static final XMLInputFactory  INPUT        = XMLInputFactory.newInstance();
+  private static final XMLOutputFactory OUTPUT       = XMLOutputFactory.newInstance();
+  private static final XMLEventFactory  EVENTS       = XMLEventFactory.newInstance();
 
-  private final Environment env;
+
+  private final Environment             env;
+
+  private String                        version;
+  private LocalDate                     releaseDate;
 
   /**
    * Constructs an instance of {@link PackageInfo}.
@@ -75,29 +84,78 @@ class PackageInfo {
   }
 
   /**
-   * Update the package info.
+   * Get the version, that has been written to the package info.
+   */
+  final String getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Get the release date, that has been written to the package info.
+   */
+  final LocalDate getReleaseDate() {
+    return this.releaseDate;
+  }
+
+  /**
+   * Keeps the version and the release date of a previous build, instead of calculating them.
+   *
+   * @param version
+   * @param releaseDate
+   */
+  final void setRelease(String version, LocalDate releaseDate) {
+    this.version = version;
+    this.releaseDate = releaseDate;
+  }
+
+  /**
+   * Update the package info. The file is only written if the version or the release date has
+   * changed.
    *
    * @param name
+   * @param releaseDate
    * @param workingDir
    */
   void updatePackageInfo(String name, LocalDate releaseDate, File workingDir) throws IOException {
     File file = new File(workingDir, name).toPath().resolve(PackageInfo.PACKAGE).toFile();
-    String text = readPackageInfo(file, releaseDate);
-    try (PrintWriter writer =
-        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
-      writer.write(text);
-      writer.flush();
+    List<XMLEvent> events = readPackageInfo(file, releaseDate);
+    if (events == null) {
+      return;
+    }
+
+    Path temp = file.toPath().resolveSibling("." + file.getName() + ".tmp");
+    try {
+      try (OutputStream stream = Files.newOutputStream(temp)) {
+        XMLEventWriter writer = PackageInfo.OUTPUT.createXMLEventWriter(stream, StandardCharsets.UTF_8.name());
+        try {
+          for (XMLEvent event : events) {
+            writer.add(event);
+          }
+          writer.flush();
+        } finally {
+          writer.close();
+        }
+      }
+      Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } finally {
+      Files.deleteIfExists(temp);
     }
   }
 
   /**
-   * Get the updated package info string.
+   * Get the events of the package info with the updated version and release date. Returns
+   * <code>null</code> if both values are up to date. A version or release date of a previous build
+   * replaces the calculated value.
    *
    * @param file
-   * @param version
-   * @param localDate
+   * @param releaseDate
    */
-  protected final String readPackageInfo(File file, LocalDate releaseDate) throws IOException {
+  protected final List<XMLEvent> readPackageInfo(File file, LocalDate releaseDate) throws IOException {
+    if (this.releaseDate != null) {
+      releaseDate = this.releaseDate;
+    }
     Version release = this.env.isSet(Constants.ENV_RELEASE) ? Version.parse(this.env.get(Constants.ENV_RELEASE)) : null;
     Version version = this.env.isSet(Constants.ENV_VERSION) ? Version.parse(this.env.get(Constants.ENV_VERSION)) : null;
     if (version != null) {
@@ -108,68 +166,67 @@ class PackageInfo {
       }
     }
 
-    String relaseDate = releaseDate.toString();
-
-    StringBuffer pattern = null;
-    StringBuffer buffer = new StringBuffer();
-    buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-
-    try {
-      XMLInputFactory factory = XMLInputFactory.newInstance();
-      XMLEventReader reader = factory.createXMLEventReader(new FileInputStream(file));
-      while (reader.hasNext()) {
-        XMLEvent nextEvent = reader.nextEvent();
-        if (nextEvent.isStartElement()) {
-          StartElement startElement = nextEvent.asStartElement();
-          String name = startElement.getName().getLocalPart();
-
-          if (name.equalsIgnoreCase(PackageInfo.VERSION) && (version != null)) {
-            pattern = new StringBuffer();
-          } else if (name.equalsIgnoreCase(PackageInfo.RELEASE_DATE) && (relaseDate != null)) {
-            pattern = new StringBuffer();
-          } else {
-            buffer.append("<");
-            buffer.append(name);
-            Iterator<?> attrs = startElement.getAttributes();
-            while (attrs.hasNext()) {
-              Attribute attr = (Attribute) attrs.next();
-              buffer.append(String.format(" %s=\"%s\"", attr.getName(), attr.getValue()));
+    int depth = 0;
+    boolean changed = false;
+    StringBuilder text = null;
+    List<XMLEvent> events = new ArrayList<>();
+    try (InputStream stream = new FileInputStream(file)) {
+      XMLEventReader reader = PackageInfo.INPUT.createXMLEventReader(stream);
+      try {
+        while (reader.hasNext()) {
+          XMLEvent event = reader.nextEvent();
+          if (event.isStartDocument()) {
+            events.add(PackageInfo.EVENTS.createStartDocument(StandardCharsets.UTF_8.name(), "1.0"));
+            events.add(PackageInfo.EVENTS.createSpace("\n"));
+            continue;
+          } else if ((depth == 0) && event.isCharacters()) {
+            // The white spaces outside of the root element are not always reported
+            continue;
+          } else if ((text != null) && event.isCharacters()) {
+            text.append(event.asCharacters().getData());
+            continue;
+          } else if ((text != null) && event.isEndElement()) {
+            String name = event.asEndElement().getName().getLocalPart();
+            String value = releaseDate.toString();
+            if (!name.equalsIgnoreCase(PackageInfo.VERSION)) {
+              this.releaseDate = releaseDate;
+            } else if (this.version != null) {
+              value = this.version;
+            } else if (version != null) {
+              // IMPORTANT: Replace + characters by - as it is not supported
+              value = version.toString(text.toString().replace('-', '+')).replace('+', '-');
+              this.version = value;
+            } else {
+              value = text.toString();
+              this.version = value;
             }
-            buffer.append(">");
+            changed |= !value.equals(text.toString());
+            events.add(PackageInfo.EVENTS.createCharacters(value));
+            text = null;
           }
-        }
 
-        if (nextEvent.isCharacters()) {
-          if (pattern == null) {
-            buffer.append(nextEvent.asCharacters());
-          } else {
-            pattern.append(nextEvent.asCharacters());
+          events.add(event);
+          if (event.isEndElement()) {
+            depth--;
+          } else if (event.isStartElement()) {
+            depth++;
+            String name = event.asStartElement().getName().getLocalPart();
+            if (name.equalsIgnoreCase(PackageInfo.VERSION) || name.equalsIgnoreCase(PackageInfo.RELEASE_DATE)) {
+              text = new StringBuilder();
+            }
           }
-        }
 
-        if (nextEvent.isEndElement()) {
-          EndElement endElement = nextEvent.asEndElement();
-          String name = endElement.getName().getLocalPart();
-
-          if (name.equalsIgnoreCase(PackageInfo.VERSION) && (version != null)) {
-            // IMPORTANT: Replace + characters by - as it is not supported
-            String text = version.toString(pattern.toString().replace('-', '+')).replace('+', '-');
-            buffer.append(String.format("<%1$s>%2$s</%1$s>", PackageInfo.VERSION, text));
-          } else if (name.equalsIgnoreCase(PackageInfo.RELEASE_DATE) && (relaseDate != null)) {
-            buffer.append(String.format("<%1$s>%2$s</%1$s>", PackageInfo.RELEASE_DATE, relaseDate));
-          }
-          if (pattern == null) {
-            buffer.append("</");
-            buffer.append(name);
-            buffer.append(">");
+          // Each comment or instruction of the prolog and the root element end on a new line
+          if ((depth == 0) && !event.isEndDocument()) {
+            events.add(PackageInfo.EVENTS.createSpace("\n"));
           }
-          pattern = null;
         }
+      } finally {
+        reader.close();
       }
     } catch (XMLStreamException e) {
       throw new IOException(e);
     }
-    buffer.append("\n");
-    return buffer.toString();
+    return changed ? events : null;
   }
 }
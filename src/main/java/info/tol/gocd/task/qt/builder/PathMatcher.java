@@ -77,11 +77,15 @@ class PathMatcher {
   }
 
   /**
-   * Resolve the input pattern on the working directory, to find all matching files.
+   * Resolve the input pattern on the {@link FileTreeIndex} of the working directory, to find all
+   * matching files.
    *
-   * @param workingPath
+   * @param index
+   * @param environment
+   * @param pattern
    */
-  public static List<PathMatcher> of(File workingDir, Environment environment, String pattern) throws IOException {
-    return FileTreeMatcher.findFileTreeMatches(workingDir, environment, pattern);
+  public static List<PathMatcher> of(FileTreeIndex index, Environment environment, String pattern)
+      throws IOException {
+    return index.find(environment, pattern);
   }
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.task.qt.builder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import info.tol.gocd.util.Environment;
+
+/**
+ * The {@link PathPattern} is a regular expression for relative paths, that allows to prune
+ * directories which can not contain a match. The pattern is split into its path segments: the
+ * leading literal segments define the directory where a search starts, and each segment, that can
+ * not match a '/', is compiled separately to test the names of the directories on the way.
+ *
+ * A single '.' is expected to match a character of a name, e.g. in "foo-1.0.tar.gz", while a
+ * repeated '.', e.g. ".*" or "(?:a|.)+", might span several directories.
+ */
+final class PathPattern {
+
+  private static final String META = "\\^$.|?*+()[]{}";
+
+
+  private final Pattern       pattern;
+  private final Set<String>   names;
+  private final String        prefix;
+  private final List<Pattern> segments;
+  private final boolean       bounded;
+
+  /**
+   * Constructs an instance of {@link PathPattern}.
+   *
+   * @param pattern
+   * @param prefix
+   * @param segments
+   * @param bounded
+   */
+  private PathPattern(String pattern, String prefix, List<Pattern> segments, boolean bounded) {
+    this.pattern = Pattern.compile("^" + pattern + "$");
+    this.names = Environment.getGroupNames(pattern);
+    this.prefix = prefix;
+    this.segments = segments;
+    this.bounded = bounded;
+  }
+
+  /**
+   * Gets the names of the named groups.
+   */
+  public final Set<String> getGroupNames() {
+    return this.names;
+  }
+
+  /**
+   * Gets the literal directory, all matches are located below. An empty string is returned, if the
+   * pattern starts with a regular expression.
+   */
+  public final String getPrefix() {
+    return this.prefix;
+  }
+
+  /**
+   * Creates a {@link Matcher} for the relative path.
+   *
+   * @param path
+   */
+  public final Matcher matcher(String path) {
+    return this.pattern.matcher(path);
+  }
+
+  /**
+   * Returns <code>true</code> if the relative directory might contain a match.
+   *
+   * @param directory
+   */
+  public final boolean isPrefix(String directory) {
+    String[] names = directory.isEmpty() ? new String[0] : directory.split("/");
+    if (this.bounded && (names.length >= this.segments.size())) {
+      return false;
+    }
+    for (int i = 0; i < Math.min(names.length, this.segments.size()); i++) {
+      if (!this.segments.get(i).matcher(names[i]).matches()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compiles the path pattern.
+   *
+   * @param pattern
+   */
+  public static PathPattern compile(String pattern) {
+    List<String> segments = PathPattern.split(pattern);
+    if (segments == null) {
+      return new PathPattern(pattern, "", Collections.emptyList(), false);
+    }
+
+    // The literal directories, the last segment is always the matching name
+    StringBuilder prefix = new StringBuilder();
+    for (int i = 0; i < segments.size() - 1; i++) {
+      String literal = PathPattern.toLiteral(segments.get(i));
+      if (literal == null) {
+        break;
+      }
+      prefix.append((i == 0) ? "" : "/").append(literal);
+    }
+
+    // The segments, that can not match a '/'
+    List<Pattern> patterns = new ArrayList<>();
+    for (String segment : segments) {
+      if (!PathPattern.isSegment(segment)) {
+        break;
+      }
+      try {
+        patterns.add(Pattern.compile(segment));
+      } catch (PatternSyntaxException e) {
+        break;
+      }
+    }
+    return new PathPattern(pattern, prefix.toString(), patterns, patterns.size() == segments.size());
+  }
+
+  /**
+   * Splits the pattern at the '/' outside of groups and character classes. Returns
+   * <code>null</code> if the pattern can't be split, because of an alternative or a flag on the
+   * top level.
+   *
+   * @param pattern
+   */
+  private static List<String> split(String pattern) {
+    List<String> segments = new ArrayList<>();
+    int depth = 0;
+    int classes = 0;
+    int offset = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '[') {
+        classes++;
+      } else if ((c == ']') && (classes > 0)) {
+        classes--;
+      } else if (classes > 0) {
+        continue;
+      } else if (c == '(') {
+        if (pattern.startsWith("(?", i) && !pattern.startsWith("(?:", i) && !pattern.startsWith("(?<", i)) {
+          return null;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if ((c == '|') && (depth == 0)) {
+        return null;
+      } else if ((c == '/') && (depth == 0)) {
+        segments.add(pattern.substring(offset, i));
+        offset = i + 1;
+      }
+    }
+    segments.add(pattern.substring(offset));
+    return segments;
+  }
+
+  /**
+   * Returns <code>true</code> if the segment doesn't match a '/' and doesn't depend on other
+   * segments. A '.' that is repeated, directly or by a quantified group, might match a '/'.
+   *
+   * @param segment
+   */
+  private static boolean isSegment(String segment) {
+    Deque<Boolean> groups = new ArrayDeque<>();
+    boolean dot = false;
+    boolean inClass = false;
+    for (int i = 0; i < segment.length(); i++) {
+      char c = segment.charAt(i);
+      if (c == '\\') {
+        char next = (i + 1 < segment.length()) ? segment.charAt(++i) : ' ';
+        if ("WSDHVXRpPkQ123456789".indexOf(next) >= 0) {
+          return false;
+        }
+      } else if (c == '/') {
+        return false;
+      } else if (inClass) {
+        inClass = (c != ']');
+      } else if (c == '[') {
+        if (segment.startsWith("[^", i)) {
+          return false;
+        }
+        inClass = true;
+      } else if (c == '.') {
+        if (PathPattern.isQuantified(segment, i + 1)) {
+          return false;
+        }
+        dot = true;
+      } else if (segment.startsWith("(?<=", i) || segment.startsWith("(?<!", i)) {
+        return false;
+      } else if (c == '(') {
+        groups.push(dot);
+        dot = false;
+      } else if ((c == ')') && !groups.isEmpty()) {
+        if (dot && PathPattern.isQuantified(segment, i + 1)) {
+          return false;
+        }
+        dot |= groups.pop();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns <code>true</code> if a quantifier follows at the offset.
+   *
+   * @param segment
+   * @param offset
+   */
+  private static boolean isQuantified(String segment, int offset) {
+    return (offset < segment.length()) && ("*+?{".indexOf(segment.charAt(offset)) >= 0);
+  }
+
+  /**
+   * Get the unescaped literal of the segment, or <code>null</code> if the segment is a regular
+   * expression.
+   *
+   * @param segment
+   */
+  private static String toLiteral(String segment) {
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < segment.length(); i++) {
+      char c = segment.charAt(i);
+      if (c == '\\') {
+        if ((i + 1 == segment.length()) || Character.isLetterOrDigit(segment.charAt(i + 1))) {
+          return null;
+        }
+        c = segment.charAt(++i);
+      } else if (PathPattern.META.indexOf(c) >= 0) {
+        return null;
+      }
+      literal.append(c);
+    }
+    return literal.length() == 0 ? null : literal.toString();
+  }
+}
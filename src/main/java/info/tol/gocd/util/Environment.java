@@ -19,6 +19,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -30,36 +33,54 @@ import java.util.regex.Pattern;
 /**
  * The {@link Environment} provides a mapping to environment variables. The {@link Environment}
  * allows to update text parts, containing parameters, with the environment variables.
+ *
+ * An {@link Environment} created by {@link #clone(Map)} holds only the additional parameters and
+ * delegates to its parent, which must not be modified afterwards.
  */
 public class Environment {
 
-  private static final Pattern NAMES  = Pattern.compile("\\(\\?<([a-z][a-z_0-9]*)>", Pattern.CASE_INSENSITIVE);
-  private static final Pattern PARAMS = Pattern.compile("\\$([0-9]+|[a-z][a-z_0-9]*)", Pattern.CASE_INSENSITIVE);
+  private static final Pattern NAMES = Pattern.compile("\\(\\?<([a-z][a-z_0-9]*)>", Pattern.CASE_INSENSITIVE);
 
 
   private final Map<String, String> environment;
+  private Environment               parent;
 
   /**
    * Constructs an instance of {@link Environment}.
    */
   public Environment() {
-    this(new HashMap<>());
+    this(null, new HashMap<>());
   }
 
   /**
    * Constructs an instance of {@link Environment}.
    *
+   * @param parent
    * @param environment
    */
-  private Environment(Map<String, String> environment) {
+  private Environment(Environment parent, Map<String, String> environment) {
+    this.parent = parent;
     this.environment = environment;
   }
 
   /**
-   * Set a new parameter to the {@link Environment}.
+   * Get the parameters of the {@link Environment}. The parameters of the parent are merged into a
+   * new {@link Map}.
    */
   public final Map<String, String> toMap() {
-    return this.environment;
+    if (this.parent == null) {
+      return this.environment;
+    }
+    Map<String, String> environment = new HashMap<>(this.parent.toMap());
+    environment.putAll(this.environment);
+    return environment;
+  }
+
+  /**
+   * Get the parameters of the {@link Environment}, without the parameters of the parent.
+   */
+  public final Map<String, String> getParameters() {
+    return Collections.unmodifiableMap(this.environment);
   }
 
   /**
@@ -68,7 +89,7 @@ public class Environment {
    * @param name
    */
   public final boolean isSet(String name) {
-    return this.environment.containsKey(name);
+    return this.environment.containsKey(name) || ((this.parent != null) && this.parent.isSet(name));
   }
 
   /**
@@ -77,7 +98,10 @@ public class Environment {
    * @param name
    */
   public final String get(String name) {
-    return this.environment.get(name);
+    if (this.environment.containsKey(name) || (this.parent == null)) {
+      return this.environment.get(name);
+    }
+    return this.parent.get(name);
   }
 
   /**
@@ -97,7 +121,26 @@ public class Environment {
    * @param environment
    */
   public final Environment add(Environment environment) {
-    this.environment.putAll(environment.toMap());
+    if ((this.parent == null) && this.environment.isEmpty()) {
+      this.parent = environment.parent;
+    }
+
+    // Collect the parameters, that are not shared through the parent
+    Deque<Map<String, String>> layers = new ArrayDeque<>();
+    Environment layer = environment;
+    for (; (layer != null) && (layer != this.parent); layer = layer.parent) {
+      layers.push(layer.environment);
+    }
+
+    if (layer != null) {
+      // The parameters of the parent, that are not overwritten, become visible again
+      Set<String> names = new HashSet<>();
+      layers.forEach(l -> names.addAll(l.keySet()));
+      this.environment.keySet().removeIf(n -> !names.contains(n) && this.parent.isSet(n));
+    }
+    while (!layers.isEmpty()) {
+      this.environment.putAll(layers.pop());
+    }
     return this;
   }
 
@@ -107,23 +150,7 @@ public class Environment {
    * @param pattern
    */
   public final String replaceByPattern(String pattern) {
-    StringBuffer buffer = new StringBuffer();
-    int offset = 0;
-
-    Matcher matcher = Environment.PARAMS.matcher(pattern);
-    while (matcher.find()) {
-      String name = matcher.group(1);
-      String value = this.environment.get(name);
-      buffer.append(pattern.substring(offset, matcher.start(1) - 1));
-      if (value == null) {
-        buffer.append("$" + name);
-      } else {
-        buffer.append(value);
-      }
-      offset = matcher.end(1);
-    }
-    buffer.append(pattern.substring(offset, pattern.length()));
-    return buffer.toString();
+    return Template.of(pattern).render(this);
   }
 
   /**
@@ -179,18 +206,16 @@ public class Environment {
    */
   @Override
   public final Environment clone() {
-    return Environment.of(this.environment);
+    return new Environment(this.parent, new HashMap<>(this.environment));
   }
 
   /**
-   * Constructs an instance of {@link Environment}.
+   * Constructs a child {@link Environment} with the additional parameters.
    *
    * @param params
    */
   public final Environment clone(Map<String, String> params) {
-    Environment environment = this.clone();
-    environment.environment.putAll(params);
-    return environment;
+    return new Environment(this, new HashMap<>(params));
   }
 
   /**
@@ -199,7 +224,7 @@ public class Environment {
    * @param environment
    */
   public static Environment of(Map<String, String> environment) {
-    return new Environment(new HashMap<>(environment));
+    return new Environment(null, new HashMap<>(environment));
   }
 
   /**
@@ -207,6 +232,6 @@ public class Environment {
    *
    */
   public static Environment empty() {
-    return new Environment(new HashMap<>());
+    return new Environment(null, new HashMap<>());
   }
 }
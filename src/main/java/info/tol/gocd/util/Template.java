@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link Template} is a text with indexed or named placeholder's, e.g. $1 or $VERSION. The text
+ * is parsed once into literal parts and parameter names, and can be rendered for any
+ * {@link Environment}. Unknown parameters are kept as placeholder.
+ *
+ * Short templates like names and paths are cached, while large texts like file contents are
+ * compiled for a single use.
+ */
+public final class Template {
+
+  private static final int                   CACHE_SIZE   = 1024;
+  private static final int                   CACHE_LENGTH = 256;
+
+  private static final Map<String, Template> CACHE        =
+      Collections.synchronizedMap(new LinkedHashMap<String, Template>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+          return size() > Template.CACHE_SIZE;
+        }
+      });
+
+
+  private final String                       text;
+  private final String[]                     literals;
+  private final String[]                     names;
+
+  /**
+   * Constructs an instance of {@link Template}.
+   *
+   * @param text
+   * @param literals
+   * @param names
+   */
+  private Template(String text, String[] literals, String[] names) {
+    this.text = text;
+    this.literals = literals;
+    this.names = names;
+  }
+
+  /**
+   * Returns <code>true</code> if the template has no placeholder.
+   */
+  public final boolean isLiteral() {
+    return this.names.length == 0;
+  }
+
+  /**
+   * Replaces the placeholder's with the parameter values of the {@link Environment}.
+   *
+   * @param environment
+   */
+  public final String render(Environment environment) {
+    if (isLiteral()) {
+      return this.text;
+    }
+    return render(environment, new StringBuilder(this.text.length() + 16 * this.names.length)).toString();
+  }
+
+  /**
+   * Appends the text to the builder, replacing the placeholder's with the parameter values of the
+   * {@link Environment}.
+   *
+   * @param environment
+   * @param builder
+   */
+  public final StringBuilder render(Environment environment, StringBuilder builder) {
+    for (int i = 0; i < this.names.length; i++) {
+      builder.append(this.literals[i]);
+      String value = environment.get(this.names[i]);
+      if (value == null) {
+        builder.append('$').append(this.names[i]);
+      } else {
+        builder.append(value);
+      }
+    }
+    return builder.append(this.literals[this.names.length]);
+  }
+
+  /**
+   * Get the text of the template.
+   */
+  @Override
+  public final String toString() {
+    return this.text;
+  }
+
+  /**
+   * Get the compiled {@link Template} for the text, short texts are taken from the cache.
+   *
+   * @param text
+   */
+  public static Template of(String text) {
+    if (text.length() > Template.CACHE_LENGTH) {
+      return Template.compile(text);
+    }
+
+    Template template = Template.CACHE.get(text);
+    if (template == null) {
+      template = Template.compile(text);
+      Template.CACHE.put(text, template);
+    }
+    return template;
+  }
+
+  /**
+   * Parses the text into literals and parameter names. A parameter is either a number or a name
+   * starting with a letter, followed by letters, digits or '_'.
+   *
+   * @param text
+   */
+  public static Template compile(String text) {
+    List<String> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+
+    int offset = 0;
+    int index = text.indexOf('$');
+    while (index >= 0 && index + 1 < text.length()) {
+      int end = index + 1;
+      char c = text.charAt(end);
+      if (Template.isDigit(c)) {
+        while (end < text.length() && Template.isDigit(text.charAt(end))) {
+          end++;
+        }
+      } else if (Template.isLetter(c)) {
+        while (end < text.length() && (Template.isLetter(text.charAt(end)) || Template.isDigit(text.charAt(end))
+            || text.charAt(end) == '_')) {
+          end++;
+        }
+      }
+
+      if (end > index + 1) {
+        literals.add(text.substring(offset, index));
+        names.add(text.substring(index + 1, end));
+        offset = end;
+      }
+      index = text.indexOf('$', end);
+    }
+    literals.add(text.substring(offset));
+    return new Template(text, literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]));
+  }
+
+  /**
+   * Returns <code>true</code> for an ASCII digit.
+   *
+   * @param c
+   */
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Returns <code>true</code> for an ASCII letter.
+   *
+   * @param c
+   */
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+}
@@ -13,6 +13,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 /**
  * Gzipped Tar archiver which preserves
@@ -30,8 +33,11 @@ import java.time.LocalDateTime;
  */
 public abstract class Archive {
 
-  private final File   file;
-  private final String name;
+  private final File        file;
+  private final String      name;
+
+  private int               parallelism = 1;
+  private Map<File, String> digests;
 
   /**
    * Creates a .tar.gz file
@@ -51,6 +57,48 @@ public abstract class Archive {
     return this.file;
   }
 
+  /**
+   * Get the directory with the name of the archive, used as default extraction target.
+   */
+  public final File getDirectory() {
+    return new File(getFile().getParentFile(), this.name);
+  }
+
+  /**
+   * Gets the number of threads used to process the archive.
+   */
+  protected final int getParallelism() {
+    return this.parallelism;
+  }
+
+  /**
+   * Set the number of threads used to process the archive.
+   *
+   * @param parallelism
+   */
+  public final Archive setParallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+    return this;
+  }
+
+  /**
+   * Gets the map collecting the digests of the extracted files, or <code>null</code>.
+   */
+  protected final Map<File, String> getDigests() {
+    return this.digests;
+  }
+
+  /**
+   * Set the map, that collects the SHA-256 digest of each extracted file. The digest is calculated
+   * from the content while the file is written.
+   *
+   * @param digests
+   */
+  public final Archive setDigests(Map<File, String> digests) {
+    this.digests = digests;
+    return this;
+  }
+
   /**
    * Creates a specific {@link InputStream}.
    */
@@ -65,18 +113,51 @@ public abstract class Archive {
     return new BufferedOutputStream(new FileOutputStream(getFile()));
   }
 
+  /**
+   * Extract the entries to the location in the target directory provided by the
+   * {@link ArchiveMapper} and return the last modification time. Entries without location are
+   * skipped without being written.
+   *
+   * @param target
+   * @param mapper
+   */
+  public abstract LocalDateTime extract(File target, ArchiveMapper mapper) throws IOException;
+
+  /**
+   * Extract the entries accepted by the filter to the target directory and return the last
+   * modification time. The filter gets the relative entry name, without leading <code>./</code>
+   * and trailing <code>/</code>. Entries that are not accepted are skipped without being written.
+   *
+   * @param target
+   * @param filter
+   */
+  public final LocalDateTime extract(File target, Predicate<String> filter) throws IOException {
+    return extract(target, (name, directory) -> filter.test(name) ? name : null);
+  }
+
   /**
    * Extract to the target directory and return the last modification time.
    *
    * @param target
    */
-  public abstract LocalDateTime extract(File target) throws IOException;
+  public final LocalDateTime extract(File target) throws IOException {
+    return extract(target, name -> true);
+  }
 
   /**
    * Extract the files in a directory with the name of the file
    */
   public final void extract() throws IOException {
-    extract(new File(getFile().getParentFile(), this.name));
+    extract(getDirectory());
+  }
+
+  /**
+   * Extract the entries accepted by the filter in a directory with the name of the file
+   *
+   * @param filter
+   */
+  public final void extract(Predicate<String> filter) throws IOException {
+    extract(getDirectory(), filter);
   }
 
   /**
@@ -84,6 +165,20 @@ public abstract class Archive {
    */
   public abstract ArchiveBuilder builder() throws IOException;
 
+  /**
+   * Creates the filter for the archive entries, that accepts the entries matching the path pattern
+   * and their children. Without a path all entries are accepted.
+   *
+   * @param path
+   */
+  public static Predicate<String> toFilter(String path) {
+    if (path == null) {
+      return name -> true;
+    }
+    Pattern pattern = Pattern.compile("^(?:" + path + ")(?:/.*)?$");
+    return name -> pattern.matcher(name).matches();
+  }
+
   /**
    * Archive the files.
    *
@@ -95,6 +190,12 @@ public abstract class Archive {
       return new ArchiveTar(file, filename.substring(0, filename.length() - 4));
     } else if (filename.toLowerCase().endsWith(".tar.gz")) {
       return new ArchiveTarGz(file, filename.substring(0, filename.length() - 7));
+    } else if (filename.toLowerCase().endsWith(".tar.zst")) {
+      return new ArchiveTarZst(file, filename.substring(0, filename.length() - 8));
+    } else if (filename.toLowerCase().endsWith(".tar.xz")) {
+      return new ArchiveTarXz(file, filename.substring(0, filename.length() - 7));
+    } else if (filename.toLowerCase().endsWith(".tar.bz2")) {
+      return new ArchiveTarBz2(file, filename.substring(0, filename.length() - 8));
     } else if (filename.toLowerCase().endsWith(".zip") || filename.toLowerCase().endsWith(".jar")
         || filename.toLowerCase().endsWith(".war")) {
       return new ArchiveZip(file, filename.substring(0, filename.length() - 4));
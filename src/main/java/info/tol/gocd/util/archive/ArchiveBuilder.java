@@ -9,10 +9,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import info.tol.gocd.util.Environment;
+
 /**
  * Gzipped Tar archiver which preserves
  *
@@ -31,13 +36,22 @@ import java.util.regex.Pattern;
 /**
  * The {@link ArchiveBuilder} implements a closable that allows to add new files to the
  * {@link ArchiveBuilder}.
+ *
+ * In deterministic mode the entries are written with normalized timestamps, owners and modes, so
+ * that identical inputs produce identical archives. The timestamp of the entries is the source
+ * date, e.g. parsed from the variable SOURCE_DATE_EPOCH of the task environment, or the epoch.
  */
 public abstract class ArchiveBuilder implements Closeable {
 
-  private static final Pattern PATTERN = Pattern.compile("(?:\\[([^\\]]+)\\])?([^,]+)");
+  private static final Pattern PATTERN           = Pattern.compile("(?:\\[([^\\]]+)\\])?([^,]+)");
 
+  public static final String   SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
 
-  private final OutputStream stream;
+
+  private final OutputStream   stream;
+  private boolean              deterministic;
+  private long                 sourceDate;
+  private Compression          compression       = Compression.of();
 
   /**
    * Constructs an instance of {@link ArchiveBuilder}.
@@ -56,24 +70,116 @@ public abstract class ArchiveBuilder implements Closeable {
   }
 
   /**
-   * Add a file to the {@link Archive} using the directory.
+   * Returns <code>true</code> if the entries are normalized for a reproducible archive.
+   */
+  protected final boolean isDeterministic() {
+    return this.deterministic;
+  }
+
+  /**
+   * Set <code>true</code> to normalize the entries for a reproducible archive.
+   *
+   * @param deterministic
+   */
+  public final ArchiveBuilder setDeterministic(boolean deterministic) {
+    this.deterministic = deterministic;
+    return this;
+  }
+
+  /**
+   * Get the timestamp in milliseconds of the entries in deterministic mode.
+   */
+  protected final long getSourceDate() {
+    return this.sourceDate;
+  }
+
+  /**
+   * Set the timestamp in milliseconds of the entries in deterministic mode.
+   *
+   * @param sourceDate
+   */
+  public final ArchiveBuilder setSourceDate(long sourceDate) {
+    this.sourceDate = sourceDate;
+    return this;
+  }
+
+  /**
+   * Gets the {@link Compression} of the entries.
+   */
+  protected final Compression getCompression() {
+    return this.compression;
+  }
+
+  /**
+   * Set the {@link Compression} of the entries.
+   *
+   * @param compression
+   */
+  public final ArchiveBuilder setCompression(Compression compression) throws IOException {
+    this.compression = compression;
+    configure(compression);
+    return this;
+  }
+
+  /**
+   * Configures the underlying stream for the {@link Compression}.
+   *
+   * @param compression
+   */
+  protected void configure(Compression compression) throws IOException {}
+
+  /**
+   * Parses the source date in milliseconds from SOURCE_DATE_EPOCH of the environment, defined in
+   * seconds since the epoch. Without the variable the epoch is returned.
+   *
+   * @param environment
+   */
+  public static long getSourceDate(Environment environment) {
+    if (!environment.isSet(ArchiveBuilder.SOURCE_DATE_EPOCH)) {
+      return 0;
+    }
+
+    String value = environment.get(ArchiveBuilder.SOURCE_DATE_EPOCH).trim();
+    try {
+      long seconds = Long.parseLong(value);
+      if (seconds >= 0) {
+        return Math.multiplyExact(seconds, 1000L);
+      }
+    } catch (NumberFormatException | ArithmeticException e) {
+      // Reported below
+    }
+    throw new IllegalArgumentException(String.format("Invalid %s '%s', expected the seconds since the epoch",
+        ArchiveBuilder.SOURCE_DATE_EPOCH, value));
+  }
+
+  /**
+   * Add a single file to the {@link Archive}. The entry name is the path relative to the directory,
+   * with the location as prefix. The entry provides the attributes read while matching the files.
    *
    * @param directory
-   * @param pattern
-   * @param location
+   * @param entry
    */
-  protected abstract void addToArchive(File directory, String pattern, String location) throws IOException;
+  abstract void addEntry(File directory, ArchiveTree.Entry entry) throws IOException;
 
   /**
-   * Add a file to the {@link ArchiveBuilder} using the directory.
+   * Add the files matching the comma separated patterns to the {@link ArchiveBuilder}. Each pattern
+   * may have a location as prefix, e.g. <code>[lib]*.so,[bin]app</code>. The directory is walked
+   * only once for all patterns.
    *
    * @param directory
    * @param pattern
    */
   public void addFile(File directory, String pattern) throws IOException {
+    List<String> patterns = new ArrayList<>();
+    List<String> locations = new ArrayList<>();
     Matcher matcher = ArchiveBuilder.PATTERN.matcher(pattern);
     while (matcher.find()) {
-      addToArchive(directory, matcher.group(2), matcher.group(1));
+      patterns.add(matcher.group(2));
+      locations.add(matcher.group(1));
+    }
+
+    for (ArchiveTree.Entry entry : ArchiveTree.findEntries(directory, patterns, locations)) {
+      addEntry(directory, entry);
     }
   }
 
@@ -105,16 +211,27 @@ public abstract class ArchiveBuilder implements Closeable {
    * @param directory
    */
   public final void addDirectory(File directory) throws IOException {
-    for (File file : directory.listFiles()) {
+    File[] files = directory.listFiles();
+    Arrays.sort(files, Comparator.comparing(File::getName));
+    for (File file : files) {
       addFile(directory, file);
     }
   }
 
+  /**
+   * Completes the pending entries, before the stream is closed.
+   */
+  protected void finish() throws IOException {}
+
   /**
    * Closes this stream and releases any system resources associated with it.
    */
   @Override
   public final void close() throws IOException {
-    this.stream.close();
+    try {
+      finish();
+    } finally {
+      this.stream.close();
+    }
   }
 }
\ No newline at end of file
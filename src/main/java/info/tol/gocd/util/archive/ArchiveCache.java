@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.util.archive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link ArchiveCache} keeps extracted archives in a directory outside of the working
+ * directory. The extracted trees are addressed by the SHA-256 digest of the archive content and the
+ * selected path inside the archive. A repeated extraction creates hard links to the cached files,
+ * falling back to a copy if the target is on another file system.
+ *
+ * The files in the target directory share their content with the cache, so they must not be
+ * modified in place. The least recently used trees are removed when the total size exceeds the
+ * limit.
+ *
+ * <pre>
+ * cache
+ *  - digest
+ *    - cache.properties
+ *    - tree
+ * </pre>
+ */
+public class ArchiveCache {
+
+  private static final String       TREE       = "tree";
+  private static final String       PROPERTIES = "cache.properties";
+
+  private static final String       SIZE       = "size";
+  private static final String       DATE       = "date";
+
+
+  private final File                directory;
+  private final long                maxSize;
+  private final Map<String, Lock>   locks      = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs an instance of {@link ArchiveCache}.
+   *
+   * @param directory
+   * @param maxSize
+   */
+  private ArchiveCache(File directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Extract the entries of the archive, selected by the path, to the directory with the name of the
+   * archive. The extracted tree is taken from the cache if available.
+   *
+   * @param archive
+   * @param path
+   */
+  public final LocalDateTime extract(Archive archive, String path) throws IOException {
+    String key = ArchiveCache.digest(archive.getFile(), path);
+    File entry = new File(this.directory, key);
+    File properties = new File(entry, ArchiveCache.PROPERTIES);
+
+    // Concurrent builds may extract the same archive, or several paths to the same directory
+    String target = archive.getDirectory().getAbsolutePath();
+    Lock directoryLock = acquire(target);
+    try {
+      synchronized (directoryLock) {
+        Lock entryLock = acquire(key);
+        try {
+          synchronized (entryLock) {
+            if (!properties.exists()) {
+              populate(archive, path, entry);
+              evict(entry);
+            }
+            properties.setLastModified(System.currentTimeMillis());
+
+            Properties values = ArchiveCache.load(properties);
+            ArchiveCache.linkFileTree(new File(entry, ArchiveCache.TREE).toPath(), archive.getDirectory().toPath());
+            String date = values.getProperty(ArchiveCache.DATE);
+            return (date == null) ? null : LocalDateTime.parse(date);
+          }
+        } finally {
+          release(key);
+        }
+      }
+    } finally {
+      release(target);
+    }
+  }
+
+  /**
+   * Gets the lock for the key, counting the users of the lock.
+   *
+   * @param key
+   */
+  private Lock acquire(String key) {
+    return this.locks.compute(key, (k, lock) -> {
+      Lock current = (lock == null) ? new Lock() : lock;
+      current.count++;
+      return current;
+    });
+  }
+
+  /**
+   * Releases the lock for the key, the lock is removed if it is no longer used.
+   *
+   * @param key
+   */
+  private void release(String key) {
+    this.locks.computeIfPresent(key, (k, lock) -> (--lock.count == 0) ? null : lock);
+  }
+
+  /**
+   * Returns <code>true</code> if the lock is used by another thread.
+   *
+   * @param key
+   */
+  private boolean isShared(String key) {
+    Lock lock = this.locks.get(key);
+    return (lock != null) && (lock.count > 1);
+  }
+
+  /**
+   * Extract the archive to a temporary directory, that is moved to the cache location when
+   * complete.
+   *
+   * @param archive
+   * @param path
+   * @param entry
+   */
+  private void populate(Archive archive, String path, File entry) throws IOException {
+    File temp = new File(this.directory, entry.getName() + "." + UUID.randomUUID());
+    try {
+      File tree = new File(temp, ArchiveCache.TREE);
+      tree.mkdirs();
+      LocalDateTime date = archive.extract(tree, Archive.toFilter(path));
+
+      Properties values = new Properties();
+      values.setProperty(ArchiveCache.SIZE, Long.toString(ArchiveCache.sizeOfTree(tree.toPath())));
+      if (date != null) {
+        values.setProperty(ArchiveCache.DATE, date.toString());
+      }
+      try (OutputStream stream = new FileOutputStream(new File(temp, ArchiveCache.PROPERTIES))) {
+        values.store(stream, archive.getFile().getName());
+      }
+
+      try {
+        Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // Another process may have populated the entry in the meantime
+        if (!new File(entry, ArchiveCache.PROPERTIES).exists()) {
+          throw e;
+        }
+      }
+    } finally {
+      if (temp.exists()) {
+        ArchiveCache.delete(temp.toPath());
+      }
+    }
+  }
+
+  /**
+   * Removes the least recently used entries until the cache fits into the size limit. Entries that
+   * are in use by another extraction are kept.
+   *
+   * @param current
+   */
+  private synchronized void evict(File current) throws IOException {
+    List<File> entries = new ArrayList<>();
+    long total = 0;
+    for (File entry : this.directory.listFiles()) {
+      File properties = new File(entry, ArchiveCache.PROPERTIES);
+      if (properties.exists()) {
+        entries.add(entry);
+        total += ArchiveCache.sizeOfEntry(entry);
+      }
+    }
+
+    entries.sort(Comparator.comparingLong(e -> new File(e, ArchiveCache.PROPERTIES).lastModified()));
+    for (File entry : entries) {
+      if (total <= this.maxSize) {
+        break;
+      }
+      if (entry.equals(current)) {
+        continue;
+      }
+
+      Lock lock = acquire(entry.getName());
+      try {
+        // Waiting for an entry in use might dead lock with its extraction
+        if (isShared(entry.getName())) {
+          continue;
+        }
+        synchronized (lock) {
+          if (isShared(entry.getName())) {
+            continue;
+          }
+          total -= ArchiveCache.sizeOfEntry(entry);
+          try {
+            ArchiveCache.delete(entry.toPath());
+          } catch (IOException e) {
+            // The entry might be in use or removed by another process
+          }
+        }
+      } finally {
+        release(entry.getName());
+      }
+    }
+  }
+
+  /**
+   * Constructs an instance of {@link ArchiveCache}.
+   *
+   * @param directory
+   * @param maxSize
+   */
+  public static ArchiveCache of(File directory, long maxSize) {
+    directory.mkdirs();
+    return new ArchiveCache(directory, maxSize);
+  }
+
+  /**
+   * Calculates the digest of the file content and the selected path.
+   *
+   * @param file
+   * @param path
+   */
+  private static String digest(File file, String path) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    byte[] buffer = new byte[1024 * 1024];
+    try (InputStream stream = new FileInputStream(file)) {
+      for (int length = stream.read(buffer); length >= 0; length = stream.read(buffer)) {
+        digest.update(buffer, 0, length);
+      }
+    }
+    if (path != null) {
+      digest.update(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    StringBuilder builder = new StringBuilder();
+    for (byte b : digest.digest()) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Get the size of a cache entry.
+   *
+   * @param entry
+   */
+  private static long sizeOfEntry(File entry) throws IOException {
+    String size = ArchiveCache.load(new File(entry, ArchiveCache.PROPERTIES)).getProperty(ArchiveCache.SIZE);
+    return (size == null) ? 0 : Long.parseLong(size);
+  }
+
+  /**
+   * Calculates the size of all files in the tree.
+   *
+   * @param path
+   */
+  private static long sizeOfTree(Path path) throws IOException {
+    long[] size = { 0 };
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        size[0] += attrs.size();
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return size[0];
+  }
+
+  /**
+   * Loads the properties of a cache entry.
+   *
+   * @param file
+   */
+  private static Properties load(File file) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream stream = new FileInputStream(file)) {
+      properties.load(stream);
+    }
+    return properties;
+  }
+
+  /**
+   * Creates the tree of the source in the target, using hard links for the files.
+   *
+   * @param source
+   * @param target
+   */
+  private static void linkFileTree(Path source, Path target) throws IOException {
+    boolean[] linkable = { true };
+    Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        Files.createDirectories(target.resolve(source.relativize(dir)));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Path path = target.resolve(source.relativize(file));
+        Files.deleteIfExists(path);
+        if (linkable[0] && attrs.isRegularFile()) {
+          try {
+            Files.createLink(path, file);
+            return FileVisitResult.CONTINUE;
+          } catch (IOException | UnsupportedOperationException e) {
+            linkable[0] = false;
+          }
+        }
+        Files.copy(file, path, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * The {@link Lock} synchronizes the access to a cache entry or a target directory. The count of
+   * the users allows to remove unused locks.
+   */
+  private static class Lock {
+
+    private volatile int count;
+  }
+
+  /**
+   * Deletes the file tree.
+   *
+   * @param path
+   */
+  private static void delete(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.util.archive;
+
+/**
+ * The {@link ArchiveMapper} maps the entries of an {@link Archive} to the location in the target
+ * directory, while extracting.
+ */
+@FunctionalInterface
+public interface ArchiveMapper {
+
+  /**
+   * Get the relative target path of the entry, or <code>null</code> to skip the entry. The name is
+   * relative, without leading <code>./</code> and trailing <code>/</code>. An empty path maps the
+   * entry to the target directory itself.
+   *
+   * @param name
+   * @param directory
+   */
+  String map(String name, boolean directory);
+}
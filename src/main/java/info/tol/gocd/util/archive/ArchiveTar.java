@@ -10,6 +10,8 @@ import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarConstants;
 
+import com.github.luben.zstd.ZstdOutputStream;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -44,36 +46,39 @@ class ArchiveTar extends Archive {
   }
 
   @Override
-  public LocalDateTime extract(File target) throws IOException {
+  public LocalDateTime extract(File target, ArchiveMapper mapper) throws IOException {
     LocalDateTime local = null;
     Map<File, String> symLinks = new HashMap<>();
-    try (TarArchiveInputStream stream = new TarArchiveInputStream(getInputStream())) {
-      TarArchiveEntry entry = stream.getNextTarEntry();
-      while (entry != null) {
+    try (TarArchiveInputStream stream = new TarArchiveInputStream(getInputStream());
+        ArchiveWriter writer = new ArchiveWriter(getParallelism(), getDigests())) {
+      for (TarArchiveEntry entry = stream.getNextTarEntry(); entry != null; entry = stream.getNextTarEntry()) {
+        String name = mapper.map(ArchiveUtil.toEntryName(entry.getName()), entry.isDirectory());
+        if (name == null) {
+          continue;
+        }
+
         LocalDateTime date =
             Instant.ofEpochMilli(entry.getLastModifiedDate().getTime()).atOffset(ZoneOffset.UTC).toLocalDateTime();
         if ((local == null) || date.isAfter(local)) {
           local = date;
         }
 
-        File newFile = ArchiveUtil.newFile(target, entry.getName());
+        File newFile = ArchiveUtil.newFile(target, name);
         if (entry.isDirectory()) {
           newFile.mkdirs();
         } else if (entry.isSymbolicLink()) {
           symLinks.put(newFile, entry.getLinkName());
         } else {
-          newFile.getParentFile().mkdirs();
-          ArchiveUtil.streamToFile(newFile, stream);
-          newFile.setLastModified(entry.getLastModifiedDate().getTime());
-          newFile.setExecutable(PosixPerms.isExecuteable(entry.getMode()));
+          writer.write(newFile, stream, entry.getSize(), entry.getLastModifiedDate().getTime(),
+              PosixPerms.isExecuteable(entry.getMode()));
         }
-        entry = stream.getNextTarEntry();
-      }
-
-      for (File file : symLinks.keySet()) {
-        Files.createSymbolicLink(file.toPath(), Paths.get(symLinks.get(file)));
       }
+    }
 
+    for (File file : symLinks.keySet()) {
+      // The link of a previous extraction is replaced, without following it
+      Files.deleteIfExists(file.toPath());
+      Files.createSymbolicLink(file.toPath(), Paths.get(symLinks.get(file)));
     }
     return local;
   }
@@ -87,9 +92,10 @@ class ArchiveTar extends Archive {
   public final ArchiveBuilder builder() throws IOException {
     getFile().getAbsoluteFile().getParentFile().mkdirs();
 
-    TarArchiveOutputStream stream = new TarArchiveOutputStream(getOutputStream(), "UTF-8");
+    OutputStream output = getOutputStream();
+    TarArchiveOutputStream stream = new TarArchiveOutputStream(output, "UTF-8");
     stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-    return new TarBuilder(stream);
+    return new TarBuilder(stream, output);
   }
 
   /**
@@ -97,13 +103,31 @@ class ArchiveTar extends Archive {
    */
   private class TarBuilder extends ArchiveBuilder {
 
+    private final OutputStream output;
+
     /**
      * Constructs an instance of {@link TarBuilder}.
      *
      * @param stream
+     * @param output
      */
-    private TarBuilder(TarArchiveOutputStream stream) {
+    private TarBuilder(TarArchiveOutputStream stream, OutputStream output) {
       super(stream);
+      this.output = output;
+    }
+
+    /**
+     * Set the compression level of a compressed TAR.
+     *
+     * @param compression
+     */
+    @Override
+    protected final void configure(Compression compression) throws IOException {
+      if (this.output instanceof ParallelGzipOutputStream) {
+        ((ParallelGzipOutputStream) this.output).setLevel(compression.getLevel());
+      } else if (this.output instanceof ZstdOutputStream) {
+        ((ZstdOutputStream) this.output).setLevel(compression.getZstdLevel());
+      }
     }
 
     /**
@@ -115,49 +139,81 @@ class ArchiveTar extends Archive {
     }
 
     /**
-     * Add a file to the {@link Archive} using the directory.
+     * Add a single file to the {@link Archive}, using the attributes of the entry.
      *
      * @param directory
-     * @param pattern
-     * @param location
+     * @param file
      */
     @Override
-    protected final void addToArchive(File directory, String pattern, String location) throws IOException {
-      for (File file : ArchiveTree.findFiles(directory, pattern)) {
-        TarArchiveEntry entry = ArchiveTar.createTarEntry(directory, file, location);
-        PosixFileAttributes attributes = PosixPerms.getAttributes(file);
+    final void addEntry(File directory, ArchiveTree.Entry file) throws IOException {
+      TarArchiveEntry entry = ArchiveTar.createTarEntry(directory, file);
+      PosixFileAttributes attributes = file.getPosixAttributes();
+      if (isDeterministic()) {
+        ArchiveTar.normalize(entry, file, getSourceDate());
+      } else {
         if (attributes != null) {
           entry.setMode(PosixPerms.toOctalFileMode(attributes.permissions()));
         }
         entry.setModTime(file.lastModified());
+      }
 
-        getOutputStream().putArchiveEntry(entry);
-        if (file.isFile() && !entry.isSymbolicLink()) {
-          ArchiveUtil.fileToStream(file, getOutputStream());
-        }
-        getOutputStream().closeArchiveEntry();
+      getOutputStream().putArchiveEntry(entry);
+      if (file.isRegularFile() && !entry.isSymbolicLink()) {
+        ArchiveUtil.fileToStream(file.getFile(), getOutputStream());
       }
+      getOutputStream().closeArchiveEntry();
     }
   }
 
 
   /**
-   * Create a {@link TarArchiveEntry}.
+   * Normalizes the {@link TarArchiveEntry} for a reproducible archive. The entry gets the source
+   * date, the root user and the mode 0755 for directories and executables, otherwise 0644.
+   *
+   * @param entry
+   * @param file
+   * @param sourceDate
+   */
+  private static void normalize(TarArchiveEntry entry, ArchiveTree.Entry file, long sourceDate) {
+    PosixFileAttributes attributes = file.getPosixAttributes();
+    boolean executable = (attributes == null) ? file.getFile().canExecute()
+        : PosixPerms.isExecuteable(PosixPerms.toOctalFileMode(attributes.permissions()));
+    if (entry.isSymbolicLink()) {
+      entry.setMode(0777);
+    } else {
+      entry.setMode((entry.isDirectory() || executable) ? 0755 : 0644);
+    }
+    entry.setModTime(sourceDate);
+    entry.setUserId(0);
+    entry.setGroupId(0);
+    entry.setUserName("");
+    entry.setGroupName("");
+  }
+
+  /**
+   * Create a {@link TarArchiveEntry} from the attributes of the file.
    *
    * @param root
    * @param file
-   * @param path
    */
-  private static TarArchiveEntry createTarEntry(File root, File file, String location) throws IOException {
-    String relativePath = ArchiveUtil.slashify(root.toPath().relativize(file.toPath()));
+  private static TarArchiveEntry createTarEntry(File root, ArchiveTree.Entry file) throws IOException {
+    String relativePath = ArchiveUtil.slashify(root.toPath().relativize(file.getFile().toPath()));
+    String location = file.getLocation();
     String path = (location == null ? "" : location + "/") + relativePath;
 
     // only create symlink entry if link target is inside archive
-    if (ArchiveUtil.isSymbolicLink(file) && ArchiveUtil.resolvesBelow(file, root)) {
+    if (file.isSymbolicLink() && ArchiveUtil.resolvesBelow(file.getFile(), root)) {
       TarArchiveEntry entry = new TarArchiveEntry(path, TarConstants.LF_SYMLINK);
-      entry.setLinkName(ArchiveUtil.slashify(ArchiveUtil.getRelativeSymLinkTarget(file, file.getParentFile())));
+      entry.setLinkName(ArchiveUtil
+          .slashify(ArchiveUtil.getRelativeSymLinkTarget(file.getFile(), file.getFile().getParentFile())));
       return entry;
     }
-    return new TarArchiveEntry(file, path);
+
+    if (file.isDirectory()) {
+      return new TarArchiveEntry(path.endsWith("/") ? path : path + "/");
+    }
+    TarArchiveEntry entry = new TarArchiveEntry(path);
+    entry.setSize(file.size());
+    return entry;
   }
 }
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+
+package info.tol.gocd.util.archive;
+
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * BZip2 Tar archiver which preserves
+ *
+ * <ul> <li>POSIX file permissions</li> <li>Symbolic links (if the link target points inside the
+ * archive)</li> <li>Last modification timestamp</li> </ul>
+ *
+ * in the archive as found in the filesystem for files to be archived. It uses GNU tar format
+ * extensions for archive entries with path length > 100.
+ */
+class ArchiveTarBz2 extends ArchiveTar {
+
+  /**
+   * Creates a .tar.bz2 file
+   *
+   * @param file
+   * @param name
+   */
+  public ArchiveTarBz2(File file, String name) {
+    super(file, name);
+  }
+
+  /**
+   * Creates a BZip2 {@link InputStream}, that reads all concatenated streams.
+   */
+  @Override
+  protected final InputStream getInputStream() throws IOException {
+    return new BZip2CompressorInputStream(super.getInputStream(), true);
+  }
+
+  /**
+   * Creates a BZip2 {@link OutputStream} with the largest block size.
+   */
+  @Override
+  protected final OutputStream getOutputStream() throws IOException {
+    return new BZip2CompressorOutputStream(super.getOutputStream());
+  }
+}
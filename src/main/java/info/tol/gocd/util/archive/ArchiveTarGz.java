@@ -6,7 +6,6 @@ package info.tol.gocd.util.archive;
 
 
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 
 import java.io.File;
 import java.io.IOException;
@@ -35,18 +34,18 @@ class ArchiveTarGz extends ArchiveTar {
   }
 
   /**
-   * Creates a GZip {@link InputStream}.
+   * Creates a GZip {@link InputStream}, that reads all concatenated members.
    */
   @Override
   protected final InputStream getInputStream() throws IOException {
-    return new GzipCompressorInputStream(super.getInputStream());
+    return new GzipCompressorInputStream(super.getInputStream(), true);
   }
 
   /**
-   * Creates a GZip {@link OutputStream}.
+   * Creates a GZip {@link OutputStream}, that compresses blocks of the archive in parallel.
    */
   @Override
   protected final OutputStream getOutputStream() throws IOException {
-    return new GzipCompressorOutputStream(super.getOutputStream());
+    return new ParallelGzipOutputStream(super.getOutputStream(), getParallelism());
   }
 }
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+
+package info.tol.gocd.util.archive;
+
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * XZ Tar archiver which preserves
+ *
+ * <ul> <li>POSIX file permissions</li> <li>Symbolic links (if the link target points inside the
+ * archive)</li> <li>Last modification timestamp</li> </ul>
+ *
+ * in the archive as found in the filesystem for files to be archived. It uses GNU tar format
+ * extensions for archive entries with path length > 100.
+ */
+class ArchiveTarXz extends ArchiveTar {
+
+  /**
+   * Creates a .tar.xz file
+   *
+   * @param file
+   * @param name
+   */
+  public ArchiveTarXz(File file, String name) {
+    super(file, name);
+  }
+
+  /**
+   * Creates a XZ {@link InputStream}, that reads all concatenated streams.
+   */
+  @Override
+  protected final InputStream getInputStream() throws IOException {
+    return new XZCompressorInputStream(super.getInputStream(), true);
+  }
+
+  /**
+   * Creates a XZ {@link OutputStream} with the default preset.
+   */
+  @Override
+  protected final OutputStream getOutputStream() throws IOException {
+    return new XZCompressorOutputStream(super.getOutputStream());
+  }
+}
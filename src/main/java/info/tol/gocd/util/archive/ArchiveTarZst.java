@@ -0,0 +1,57 @@
+/**
+ *
+ */
+
+package info.tol.gocd.util.archive;
+
+
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Zstandard Tar archiver which preserves
+ *
+ * <ul> <li>POSIX file permissions</li> <li>Symbolic links (if the link target points inside the
+ * archive)</li> <li>Last modification timestamp</li> </ul>
+ *
+ * in the archive as found in the filesystem for files to be archived. It uses GNU tar format
+ * extensions for archive entries with path length > 100.
+ */
+class ArchiveTarZst extends ArchiveTar {
+
+  /**
+   * Creates a .tar.zst file
+   *
+   * @param file
+   * @param name
+   */
+  public ArchiveTarZst(File file, String name) {
+    super(file, name);
+  }
+
+  /**
+   * Creates a Zstandard {@link InputStream}, that reads all concatenated streams.
+   */
+  @Override
+  protected final InputStream getInputStream() throws IOException {
+    return new ZstdCompressorInputStream(super.getInputStream());
+  }
+
+  /**
+   * Creates a Zstandard {@link OutputStream}, that compresses the archive on multiple threads.
+   */
+  @Override
+  protected final OutputStream getOutputStream() throws IOException {
+    // The output of the multi-threaded mode doesn't depend on the number of workers
+    ZstdOutputStream stream = new ZstdOutputStream(super.getOutputStream(), Compression.ZSTD_DEFAULT_LEVEL);
+    stream.setChecksum(true);
+    stream.setWorkers(getParallelism());
+    return stream;
+  }
+}
@@ -17,11 +17,12 @@ package info.tol.gocd.util.archive;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -30,68 +31,196 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * The {@link ArchiveTree} class.
+ * The {@link ArchiveTree} walks a directory once and matches each path against all patterns. A
+ * path is reported once for each matching pattern, with the location of the pattern. The
+ * attributes of each file are read once during the walk and kept with the entries.
  */
-class ArchiveTree extends SimpleFileVisitor<Path> {
+class ArchiveTree {
 
-  private final Path       root;
-  private final Pattern    pattern;
+  private final Path          root;
+  private final List<Pattern> patterns;
+  private final List<String>  locations;
+  private final boolean       posix;
 
-  private final List<File> files = new ArrayList<>();
+  private final List<Entry>   entries = new ArrayList<>();
 
 
   /**
    * Constructs an instance of {@link ArchiveTree}.
    *
    * @param root
-   * @param pattern
+   * @param patterns
+   * @param locations
    */
-  private ArchiveTree(Path root, Pattern pattern) {
+  private ArchiveTree(Path root, List<Pattern> patterns, List<String> locations) {
     this.root = root;
-    this.pattern = pattern;
+    this.patterns = patterns;
+    this.locations = locations;
+    this.posix = root.getFileSystem().supportedFileAttributeViews().contains("posix");
   }
 
   /**
-   * Invoked for a directory before entries in the directory are visited.
+   * Read the attributes of the path, including the POSIX attributes if supported.
    *
    * @param path
-   * @param attrs
+   * @param options
    */
-  @Override
-  public final FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
-    checkPathPattern(path);
-    return FileVisitResult.CONTINUE;
+  private BasicFileAttributes readAttributes(Path path, LinkOption... options) throws IOException {
+    return this.posix ? Files.readAttributes(path, PosixFileAttributes.class, options)
+        : Files.readAttributes(path, BasicFileAttributes.class, options);
   }
 
   /**
-   * Invoked for a file in a directory.
+   * Visits the path and walks into directories, without following symbolic links.
    *
    * @param path
-   * @param attrs
    */
-  @Override
-  public final FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-    checkPathPattern(path);
-    return FileVisitResult.SKIP_SUBTREE;
+  private void walk(Path path) throws IOException {
+    BasicFileAttributes attrs = readAttributes(path, LinkOption.NOFOLLOW_LINKS);
+    checkPathPattern(path, attrs);
+    if (attrs.isDirectory()) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+        for (Path child : stream) {
+          walk(child);
+        }
+      }
+    }
   }
 
-
   /**
-   * Check against the pattern.
+   * Check against all patterns.
    *
    * @param path
+   * @param attrs
    */
-  private final void checkPathPattern(Path path) throws IOException {
+  private void checkPathPattern(Path path, BasicFileAttributes attrs) throws IOException {
     String input = this.root.relativize(path).toString();
     // Avoid problems on Windows
-    Matcher matcher = this.pattern.matcher(input.replace('\\', '/'));
-    if (matcher.find()) {
-      this.files.add(new File(this.root.toFile(), input));
+    String name = input.replace('\\', '/');
+    File file = null;
+    BasicFileAttributes target = attrs;
+    for (int index = 0; index < this.patterns.size(); index++) {
+      Matcher matcher = this.patterns.get(index).matcher(name);
+      if (matcher.find()) {
+        if (file == null) {
+          file = new File(this.root.toFile(), input);
+          if (attrs.isSymbolicLink()) {
+            target = ArchiveTree.readTarget(path);
+          }
+        }
+        this.entries.add(new Entry(file, this.locations.get(index), index, attrs, target));
+      }
     }
   }
 
   /**
-   * The {@link FileComparator} checks that the files are ordered in following order:
+   * Read the attributes of the target of a symbolic link, or <code>null</code> if the target
+   * doesn't exist.
+   *
+   * @param path
+   */
+  private static BasicFileAttributes readTarget(Path path) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The {@link Entry} is a file matched by a pattern, with the attributes read during the walk. For
+   * a symbolic link the attributes of the link target are kept too.
+   */
+  static class Entry {
+
+    private final File                file;
+    private final String              location;
+    private final int                 index;
+    private final BasicFileAttributes attributes;
+    private final BasicFileAttributes target;
+    private final int                 type;
+
+    /**
+     * Constructs an instance of {@link Entry}.
+     *
+     * @param file
+     * @param location
+     * @param index
+     * @param attributes
+     * @param target
+     */
+    private Entry(File file, String location, int index, BasicFileAttributes attributes,
+        BasicFileAttributes target) {
+      this.file = file;
+      this.location = location;
+      this.index = index;
+      this.attributes = attributes;
+      this.target = target;
+      this.type = isDirectory() ? 1 : attributes.isSymbolicLink() ? 3 : 2;
+    }
+
+    /**
+     * Gets the matched file.
+     */
+    public final File getFile() {
+      return this.file;
+    }
+
+    /**
+     * Gets the location of the pattern, or <code>null</code>.
+     */
+    public final String getLocation() {
+      return this.location;
+    }
+
+    /**
+     * Gets the {@link PosixFileAttributes} of the file itself, or <code>null</code> if not
+     * supported.
+     */
+    public final PosixFileAttributes getPosixAttributes() {
+      return (this.attributes instanceof PosixFileAttributes) ? (PosixFileAttributes) this.attributes : null;
+    }
+
+    /**
+     * Returns <code>true</code> if the file is a symbolic link.
+     */
+    public final boolean isSymbolicLink() {
+      return this.attributes.isSymbolicLink();
+    }
+
+    /**
+     * Returns <code>true</code> if the file, or the target of a link, is a directory.
+     */
+    public final boolean isDirectory() {
+      return (this.target != null) && this.target.isDirectory();
+    }
+
+    /**
+     * Returns <code>true</code> if the file, or the target of a link, is a regular file.
+     */
+    public final boolean isRegularFile() {
+      return (this.target != null) && this.target.isRegularFile();
+    }
+
+    /**
+     * Gets the size of the file, or the target of a link.
+     */
+    public final long size() {
+      return (this.target == null) ? 0 : this.target.size();
+    }
+
+    /**
+     * Gets the last modification of the file, or the target of a link.
+     */
+    public final long lastModified() {
+      return (this.target == null) ? 0 : this.target.lastModifiedTime().toMillis();
+    }
+  }
+
+  /**
+   * The {@link EntryComparator} keeps the order of the patterns. The files of a pattern are ordered
+   * in following order, files of the same type are ordered by their path independent of the walk
+   * order:
    *
    * <pre>
    * - directory
@@ -99,28 +228,35 @@ class ArchiveTree extends SimpleFileVisitor<Path> {
    * - symbol link
    * </pre>
    */
-  private static class FileComparator implements Comparator<File> {
+  private static class EntryComparator implements Comparator<Entry> {
 
     @Override
-    public int compare(File o1, File o2) {
-      int t1 = o1.isDirectory() ? 1 : ArchiveUtil.isSymbolicLink(o1) ? 3 : 2;
-      int t2 = o2.isDirectory() ? 1 : ArchiveUtil.isSymbolicLink(o2) ? 3 : 2;
-      return (t1 == t2) ? 0 : (t1 < t2 ? -1 : 1);
+    public int compare(Entry o1, Entry o2) {
+      if (o1.index != o2.index) {
+        return (o1.index < o2.index) ? -1 : 1;
+      }
+      return (o1.type == o2.type) ? o1.file.getPath().compareTo(o2.file.getPath()) : (o1.type < o2.type ? -1 : 1);
     }
   }
 
   /**
-   * Copy the file tree using the environment variables.
+   * Find the files matching any of the patterns with a single walk of the directory. Each pattern
+   * has an optional location, the entries are ordered by pattern.
    *
    * @param workingDir
-   * @param pattern
+   * @param filePatterns
+   * @param locations
    */
-  public static List<File> findFiles(File workingDir, String filePattern) throws IOException {
-    Path workingPath = workingDir.toPath();
-    Pattern pattern = Pattern.compile("^" + filePattern.replace(".", "\\.").replace("*", "[^/]*"));
-    ArchiveTree visitor = new ArchiveTree(workingPath, pattern);
-    Files.walkFileTree(workingPath, visitor);
-    Collections.sort(visitor.files, new FileComparator());
-    return visitor.files;
+  public static List<Entry> findEntries(File workingDir, List<String> filePatterns, List<String> locations)
+      throws IOException {
+    List<Pattern> patterns = new ArrayList<>();
+    for (String filePattern : filePatterns) {
+      patterns.add(Pattern.compile("^" + filePattern.replace(".", "\\.").replace("*", "[^/]*")));
+    }
+
+    ArchiveTree tree = new ArchiveTree(workingDir.toPath(), patterns, locations);
+    tree.walk(tree.root);
+    Collections.sort(tree.entries, new EntryComparator());
+    return tree.entries;
   }
 }
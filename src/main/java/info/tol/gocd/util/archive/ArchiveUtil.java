@@ -37,29 +37,58 @@ abstract class ArchiveUtil {
   }
 
   /**
-   * Copy the file to the {@link OutputStream}.
+   * Copy the {@link InputStream} to the file. An existing file is replaced instead of overwritten,
+   * as it might be a hard link of another file.
    *
    * @param file
    * @param stream
    */
   public static void streamToFile(File file, InputStream stream) throws IOException {
+    Files.deleteIfExists(file.toPath());
     try (BufferedOutputStream buffer = new BufferedOutputStream(new FileOutputStream(file))) {
       IOUtils.copy(stream, buffer);
     }
   }
 
   /**
-   * Create the new file name.
+   * Write the bytes to the file. An existing file is replaced instead of overwritten.
+   *
+   * @param file
+   * @param bytes
+   */
+  public static void bytesToFile(File file, byte[] bytes) throws IOException {
+    Files.deleteIfExists(file.toPath());
+    try (FileOutputStream stream = new FileOutputStream(file)) {
+      stream.write(bytes);
+    }
+  }
+
+  /**
+   * Get the relative name of an archive entry, without leading <code>./</code> and trailing
+   * <code>/</code>.
+   *
+   * @param name
+   */
+  public static String toEntryName(String name) {
+    String entryName = name.replace('\\', '/');
+    while (entryName.startsWith("./")) {
+      entryName = entryName.substring(2);
+    }
+    return entryName.endsWith("/") ? entryName.substring(0, entryName.length() - 1) : entryName;
+  }
+
+  /**
+   * Create the new file name. An empty name refers to the target itself.
    *
    * @param target
    * @param name
    */
   public static File newFile(File target, String name) throws IOException {
-    File file = new File(target, name);
+    File file = name.isEmpty() ? target : new File(target, name);
     String targetPath = target.getCanonicalPath();
     String targetFilePath = file.getCanonicalPath();
 
-    if (!targetFilePath.startsWith(targetPath + File.separator)) {
+    if (!targetFilePath.equals(targetPath) && !targetFilePath.startsWith(targetPath + File.separator)) {
       throw new IOException("Entry is outside of the target dir: " + name);
     }
     return file;
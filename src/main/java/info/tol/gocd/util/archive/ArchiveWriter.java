@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link ArchiveWriter} materializes the files of an {@link Archive} on a bounded pool of
+ * workers. The reading thread keeps decompressing the archive and hands the content of each file
+ * over as byte buffer. Large files are written on the reading thread, the total size of the pending
+ * buffers is limited.
+ *
+ * An archive may contain several entries with the same name, the last entry wins. The writes of a
+ * file are therefore serialized: a file is written after the pending write of the same file has
+ * finished.
+ *
+ * Optionally the SHA-256 digests of the written files are collected, calculated from the content
+ * while it is written.
+ */
+class ArchiveWriter implements Closeable {
+
+  private static final int                 ENTRY_COST   = 512;
+  private static final int                 ENTRY_LIMIT  = 4 * 1024 * 1024;
+  private static final int                 BUFFER_LIMIT = 64 * 1024 * 1024;
+
+
+  private final ExecutorService            executor;
+  private final Semaphore                  buffers      = new Semaphore(ArchiveWriter.BUFFER_LIMIT);
+  private final AtomicReference<Throwable> failure      = new AtomicReference<>();
+  private final Map<File, Future<?>>       pending      = new ConcurrentHashMap<>();
+  private final Map<File, String>          digests;
+
+  /**
+   * Constructs an instance of {@link ArchiveWriter}. A parallelism of 1 writes all files on the
+   * calling thread. The digests of the written files are collected, if a map is provided.
+   *
+   * @param parallelism
+   * @param digests
+   */
+  ArchiveWriter(int parallelism, Map<File, String> digests) {
+    this.executor = (parallelism > 1) ? Executors.newFixedThreadPool(parallelism) : null;
+    this.digests = (digests == null) ? null : Collections.synchronizedMap(digests);
+  }
+
+  /**
+   * Executes the task, that writes the file, on the workers.
+   *
+   * @param file
+   * @param task
+   */
+  public final void submit(File file, Task task) throws IOException {
+    checkFailure();
+    if (this.executor == null) {
+      task.run();
+      return;
+    }
+
+    await(file);
+    FutureTask<Void> future = new FutureTask<Void>(() -> {
+      try {
+        task.run();
+      } catch (Throwable e) {
+        this.failure.compareAndSet(null, e);
+      }
+    }, null) {
+
+      @Override
+      protected void done() {
+        // Only the pending writes are tracked
+        ArchiveWriter.this.pending.remove(file, this);
+      }
+    };
+    this.pending.put(file, future);
+    this.executor.execute(future);
+  }
+
+  /**
+   * Writes the content of the current entry of the stream to the file.
+   *
+   * @param file
+   * @param stream
+   * @param size
+   * @param lastModified
+   * @param executable
+   */
+  public final void write(File file, InputStream stream, long size, long lastModified, boolean executable)
+      throws IOException {
+    if ((this.executor == null) || (size < 0) || (size > ArchiveWriter.ENTRY_LIMIT)) {
+      checkFailure();
+      await(file);
+      file.getParentFile().mkdirs();
+      writeFile(file, stream);
+      file.setLastModified(lastModified);
+      file.setExecutable(executable);
+      return;
+    }
+
+    int cost = (int) size + ArchiveWriter.ENTRY_COST;
+    try {
+      this.buffers.acquire(cost);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+
+    try {
+      byte[] buffer = new byte[(int) size];
+      IOUtils.readFully(stream, buffer);
+      submit(file, () -> {
+        try {
+          file.getParentFile().mkdirs();
+          ArchiveUtil.bytesToFile(file, buffer);
+          if (this.digests != null) {
+            MessageDigest digest = ArchiveWriter.newDigest();
+            digest.update(buffer);
+            this.digests.put(file, ArchiveWriter.toHex(digest.digest()));
+          }
+          file.setLastModified(lastModified);
+          file.setExecutable(executable);
+        } finally {
+          this.buffers.release(cost);
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      this.buffers.release(cost);
+      throw e;
+    }
+  }
+
+  /**
+   * Waits until all files are written and reports the first failure.
+   */
+  @Override
+  public final void close() throws IOException {
+    if (this.executor != null) {
+      this.executor.shutdown();
+      try {
+        while (!this.executor.awaitTermination(1, TimeUnit.MINUTES)) {}
+      } catch (InterruptedException e) {
+        this.executor.shutdownNow();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+    }
+    checkFailure();
+  }
+
+  /**
+   * Waits until the pending write of the file has finished.
+   *
+   * @param file
+   */
+  private void await(File file) throws IOException {
+    Future<?> future = this.pending.remove(file);
+    if (future == null) {
+      return;
+    }
+
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    checkFailure();
+  }
+
+  /**
+   * Throws the failure of a worker, if any.
+   */
+  private void checkFailure() throws IOException {
+    Throwable e = this.failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e != null) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Writes the stream to the file on the calling thread, and collects the digest of the content.
+   *
+   * @param file
+   * @param stream
+   */
+  final void writeFile(File file, InputStream stream) throws IOException {
+    if (this.digests == null) {
+      ArchiveUtil.streamToFile(file, stream);
+      return;
+    }
+
+    MessageDigest digest = ArchiveWriter.newDigest();
+    ArchiveUtil.streamToFile(file, new DigestInputStream(stream, digest));
+    this.digests.put(file, ArchiveWriter.toHex(digest.digest()));
+  }
+
+  /**
+   * Creates a SHA-256 {@link MessageDigest}.
+   */
+  private static MessageDigest newDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Get the hex representation of the bytes.
+   *
+   * @param bytes
+   */
+  private static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * The {@link Task} writes a single entry.
+   */
+  @FunctionalInterface
+  interface Task {
+
+    void run() throws IOException;
+  }
+}
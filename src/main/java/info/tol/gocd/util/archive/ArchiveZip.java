@@ -5,16 +5,37 @@
 package info.tol.gocd.util.archive;
 
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 /**
  * Gzipped Tar archiver which preserves
@@ -27,6 +48,12 @@ import java.util.zip.ZipOutputStream;
  */
 class ArchiveZip extends Archive {
 
+  private static final int           BUFFER_SIZE  = 64 * 1024;
+  private static final int           ENTRY_LIMIT  = 16 * 1024 * 1024;
+  private static final int           BUFFER_LIMIT = 64 * 1024 * 1024;
+
+  private static final LocalDateTime MIN_TIME     = LocalDateTime.of(1980, 2, 1, 0, 0);
+
   /**
    * Creates a .tar.gz file
    *
@@ -38,31 +65,42 @@ class ArchiveZip extends Archive {
   }
 
   /**
-   * Uncompress the provided ZIP-file to the target location
+   * Uncompress the provided ZIP-file to the target location. The entries are read through the
+   * central directory, so that they can be inflated and written in parallel. Entries that are
+   * skipped by the mapper are never inflated.
    *
    * @param target
+   * @param mapper
    */
   @Override
-  public final LocalDateTime extract(File target) throws IOException {
+  public final LocalDateTime extract(File target, ArchiveMapper mapper) throws IOException {
     LocalDateTime local = null;
-    try (ZipInputStream stream = new ZipInputStream(getInputStream())) {
-      ZipEntry entry = stream.getNextEntry();
-      while (entry != null) {
+    try (ZipFile zip = new ZipFile(getFile()); ArchiveWriter writer = new ArchiveWriter(getParallelism(), getDigests())) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = mapper.map(ArchiveUtil.toEntryName(entry.getName()), entry.isDirectory());
+        if (name == null) {
+          continue;
+        }
+
         LocalDateTime date = Instant.ofEpochMilli(entry.getTime()).atOffset(ZoneOffset.UTC).toLocalDateTime();
         if ((local == null) || date.isAfter(local)) {
           local = date;
         }
 
-        File newFile = ArchiveUtil.newFile(target, entry.getName());
+        File newFile = ArchiveUtil.newFile(target, name);
         if (entry.isDirectory()) {
           newFile.mkdirs();
         } else {
-          newFile.getParentFile().mkdirs();
-          ArchiveUtil.streamToFile(newFile, stream);
-          newFile.setLastModified(entry.getTime());
+          writer.submit(newFile, () -> {
+            newFile.getParentFile().mkdirs();
+            try (InputStream stream = zip.getInputStream(entry)) {
+              writer.writeFile(newFile, stream);
+            }
+            newFile.setLastModified(entry.getTime());
+          });
         }
-        stream.closeEntry();
-        entry = stream.getNextEntry();
       }
     }
     return local;
@@ -76,59 +114,285 @@ class ArchiveZip extends Archive {
   @Override
   public final ArchiveBuilder builder() throws IOException {
     getFile().getAbsoluteFile().getParentFile().mkdirs();
-    return new ZipBuilder(new ZipOutputStream(getOutputStream(), Charset.defaultCharset()));
+
+    ZipArchiveOutputStream stream = new ZipArchiveOutputStream(getOutputStream());
+    stream.setEncoding(StandardCharsets.UTF_8.name());
+    stream.setUseLanguageEncodingFlag(true);
+    return new ZipBuilder(stream, getParallelism());
   }
 
   /**
-   * The {@link TarBuilder} creates a builder to adding files to a TAR.
+   * The {@link ZipBuilder} creates a builder to adding files to a ZIP. The entries are deflated in
+   * parallel to memory and written as raw entries in the order they have been added, so the archive
+   * doesn't depend on the parallelism. Large entries are deflated while writing. Entries with
+   * already compressed content are stored, as defined by the {@link Compression}.
    */
   private class ZipBuilder extends ArchiveBuilder {
 
+    private final ForkJoinPool                  pool;
+    private final int                           limit;
+    private final Deque<ForkJoinTask<RawEntry>> entries = new ArrayDeque<>();
+    private final Set<String>                   names   = new HashSet<>();
+
+    private long                                pending;
+
     /**
-     * Constructs an instance of {@link TarBuilder}.
+     * Constructs an instance of {@link ZipBuilder}. A parallelism of 1 deflates the entries on the
+     * calling thread.
+     *
+     * @param stream
+     * @param parallelism
      */
-    private ZipBuilder(ZipOutputStream stream) {
+    private ZipBuilder(ZipArchiveOutputStream stream, int parallelism) {
       super(stream);
+      this.pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+      this.limit = 4 * parallelism;
     }
 
     /**
      * Gets the {@link OutputStream}.
      */
     @Override
-    protected final ZipOutputStream getOutputStream() {
-      return (ZipOutputStream) super.getOutputStream();
+    protected final ZipArchiveOutputStream getOutputStream() {
+      return (ZipArchiveOutputStream) super.getOutputStream();
+    }
+
+    /**
+     * Set the compression level of the entries, that are deflated while writing.
+     *
+     * @param compression
+     */
+    @Override
+    protected final void configure(Compression compression) {
+      getOutputStream().setLevel(compression.getLevel());
     }
 
     /**
-     * Add the files matching the pattern to the {@link Archive}. Optional adds the path as prefix.
+     * Add a single file to the {@link Archive}. Optional adds the path as prefix, directories are
+     * skipped.
      *
      * @param directory
-     * @param pattern
-     * @param path
+     * @param file
+     */
+    @Override
+    final void addEntry(File directory, ArchiveTree.Entry file) throws IOException {
+      if (!file.isRegularFile()) {
+        return;
+      }
+
+      ZipArchiveEntry entry = ArchiveZip.createZipEntry(directory, file.getFile(), file.getLocation());
+      if (!this.names.add(entry.getName())) {
+        throw new ZipException("duplicate entry: " + entry.getName());
+      }
+      entry.setTime(isDeterministic() ? ArchiveZip.toZipTime(getSourceDate()) : file.lastModified());
+
+      long size = file.size();
+      if (size > ArchiveZip.ENTRY_LIMIT) {
+        while (!this.entries.isEmpty()) {
+          writeEntry();
+        }
+        if (ArchiveZip.isStored(entry, file.getFile(), getCompression())) {
+          ArchiveZip.setStored(entry, file.getFile());
+        }
+        entry.setSize(size);
+        getOutputStream().putArchiveEntry(entry);
+        ArchiveUtil.fileToStream(file.getFile(), getOutputStream());
+        getOutputStream().closeArchiveEntry();
+        return;
+      }
+
+      Compression compression = getCompression();
+      if (this.pool == null) {
+        writeEntry(ArchiveZip.deflate(entry, file.getFile(), size, compression));
+        return;
+      }
+
+      this.entries.addLast(this.pool.submit(() -> ArchiveZip.deflate(entry, file.getFile(), size, compression)));
+      this.pending += size;
+      while ((this.entries.size() > this.limit) || (this.pending > ArchiveZip.BUFFER_LIMIT)) {
+        writeEntry();
+      }
+    }
+
+    /**
+     * Waits for the oldest entry and writes it to the underlying stream.
+     */
+    private void writeEntry() throws IOException {
+      try {
+        RawEntry raw = this.entries.removeFirst().get();
+        this.pending -= raw.size;
+        writeEntry(raw);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      } catch (ExecutionException e) {
+        throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+      }
+    }
+
+    /**
+     * Writes the deflated entry to the underlying stream.
+     *
+     * @param raw
+     */
+    private void writeEntry(RawEntry raw) throws IOException {
+      getOutputStream().addRawArchiveEntry(raw.entry, new ByteArrayInputStream(raw.data));
+    }
+
+    /**
+     * Writes the pending entries.
      */
     @Override
-    protected final void addToArchive(File directory, String pattern, String prefix) throws IOException {
-      for (File file : ArchiveTree.findFiles(directory, pattern)) {
-        if (file.isFile()) {
-          ZipEntry entry = ArchiveZip.createZipEntry(directory, file, prefix);
-          getOutputStream().putNextEntry(entry);
-          ArchiveUtil.fileToStream(file, getOutputStream());
+    protected final void finish() throws IOException {
+      try {
+        while (!this.entries.isEmpty()) {
+          writeEntry();
+        }
+      } finally {
+        if (this.pool != null) {
+          this.pool.shutdownNow();
+        }
+      }
+    }
+  }
+
+  /**
+   * The {@link RawEntry} is an entry with the deflated content.
+   */
+  private static class RawEntry {
+
+    private final ZipArchiveEntry entry;
+    private final byte[]          data;
+    private final long            size;
+
+    /**
+     * Constructs an instance of {@link RawEntry}.
+     *
+     * @param entry
+     * @param data
+     * @param size
+     */
+    private RawEntry(ZipArchiveEntry entry, byte[] data, long size) {
+      this.entry = entry;
+      this.data = data;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Deflates the content of the file to memory, and sets the checksum and the sizes of the entry.
+   * The content is kept uncompressed, if the {@link Compression} stores the entry.
+   *
+   * @param entry
+   * @param file
+   * @param size
+   * @param compression
+   */
+  private static RawEntry deflate(ZipArchiveEntry entry, File file, long size, Compression compression)
+      throws IOException {
+    byte[] buffer = new byte[ArchiveZip.BUFFER_SIZE];
+    try (InputStream stream = new FileInputStream(file)) {
+      int count = IOUtils.readFully(stream, buffer);
+      if (compression.isStored(entry.getName(), buffer, count)) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) size);
+        CRC32 crc = new CRC32();
+        for (; count > 0; count = stream.read(buffer)) {
+          crc.update(buffer, 0, count);
+          output.write(buffer, 0, count);
+        }
+
+        entry.setMethod(ZipEntry.STORED);
+        entry.setCrc(crc.getValue());
+        entry.setSize(output.size());
+        entry.setCompressedSize(output.size());
+        return new RawEntry(entry, output.toByteArray(), size);
+      }
+
+      ByteArrayOutputStream output = new ByteArrayOutputStream((int) (size / 2) + 64);
+      CRC32 crc = new CRC32();
+      long length = 0;
+
+      Deflater deflater = new Deflater(compression.getLevel(), true);
+      try (DeflaterOutputStream deflated = new DeflaterOutputStream(output, deflater, ArchiveZip.BUFFER_SIZE)) {
+        for (; count > 0; count = stream.read(buffer)) {
+          crc.update(buffer, 0, count);
+          deflated.write(buffer, 0, count);
+          length += count;
         }
+      } finally {
+        deflater.end();
+      }
+
+      entry.setMethod(ZipEntry.DEFLATED);
+      entry.setCrc(crc.getValue());
+      entry.setSize(length);
+      entry.setCompressedSize(output.size());
+      return new RawEntry(entry, output.toByteArray(), size);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the {@link Compression} stores the file uncompressed.
+   *
+   * @param entry
+   * @param file
+   * @param compression
+   */
+  private static boolean isStored(ZipArchiveEntry entry, File file, Compression compression) throws IOException {
+    byte[] header = new byte[compression.getMagicLength()];
+    try (InputStream stream = new FileInputStream(file)) {
+      int count = IOUtils.readFully(stream, header);
+      return compression.isStored(entry.getName(), header, count);
+    }
+  }
+
+  /**
+   * Prepares the entry to be stored uncompressed, which requires the checksum before the content
+   * is written.
+   *
+   * @param entry
+   * @param file
+   */
+  private static void setStored(ZipArchiveEntry entry, File file) throws IOException {
+    CRC32 crc = new CRC32();
+    long length = 0;
+    byte[] buffer = new byte[ArchiveZip.BUFFER_SIZE];
+    try (InputStream stream = new FileInputStream(file)) {
+      for (int count = stream.read(buffer); count >= 0; count = stream.read(buffer)) {
+        crc.update(buffer, 0, count);
+        length += count;
       }
     }
+
+    entry.setMethod(ZipEntry.STORED);
+    entry.setCrc(crc.getValue());
+    entry.setCompressedSize(length);
   }
 
+  /**
+   * Converts the UTC timestamp to the local time of a ZIP entry, which is stored as MS-DOS time in
+   * the default time zone. Timestamps before 1980-02-01 can't be represented in all time zones.
+   *
+   * @param millis
+   */
+  private static long toZipTime(long millis) {
+    LocalDateTime dateTime = LocalDateTime.ofEpochSecond(millis / 1000, 0, ZoneOffset.UTC);
+    if (dateTime.isBefore(ArchiveZip.MIN_TIME)) {
+      dateTime = ArchiveZip.MIN_TIME;
+    }
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
 
   /**
-   * Create a {@link ZipEntry}.
+   * Create a {@link ZipArchiveEntry}.
    *
    * @param root
    * @param file
-   * @param path
+   * @param prefix
    */
-  private static ZipEntry createZipEntry(File root, File file, String prefix) throws IOException {
+  private static ZipArchiveEntry createZipEntry(File root, File file, String prefix) throws IOException {
     String relativePath = ArchiveUtil.slashify(root.toPath().relativize(file.toPath()));
-    return new ZipEntry((prefix == null ? "" : prefix + "/") + relativePath);
+    return new ZipArchiveEntry((prefix == null ? "" : prefix + "/") + relativePath);
   }
 
 }
@@ -34,7 +34,11 @@ public class Assembly {
 
 
   private File               archive;
-  private final List<String> patterns = new ArrayList<>();
+  private int                parallelism = Runtime.getRuntime().availableProcessors();
+  private boolean            deterministic;
+  private long               sourceDate;
+  private Compression        compression = Compression.of();
+  private final List<String> patterns    = new ArrayList<>();
 
   /**
    * Constructs an instance of {@link Assembly}.
@@ -55,6 +59,48 @@ public class Assembly {
     return this;
   }
 
+  /**
+   * Set the number of threads used to compress the archive.
+   *
+   * @param parallelism
+   */
+  public final Assembly setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Set <code>true</code> to build a reproducible archive, identical inputs produce identical
+   * bytes.
+   *
+   * @param deterministic
+   */
+  public final Assembly setDeterministic(boolean deterministic) {
+    this.deterministic = deterministic;
+    return this;
+  }
+
+  /**
+   * Set the timestamp in milliseconds of the entries of a reproducible archive, see
+   * {@link ArchiveBuilder#getSourceDate(info.tol.gocd.util.Environment)}.
+   *
+   * @param sourceDate
+   */
+  public final Assembly setSourceDate(long sourceDate) {
+    this.sourceDate = sourceDate;
+    return this;
+  }
+
+  /**
+   * Set the {@link Compression} of the archive.
+   *
+   * @param compression
+   */
+  public final Assembly setCompression(Compression compression) {
+    this.compression = compression;
+    return this;
+  }
+
   /**
    * Set the archive
    *
@@ -70,7 +116,10 @@ public class Assembly {
    *
    */
   public final void build(Consumer<String> consumer) throws IOException {
-    try (ArchiveBuilder builder = Archive.builder(this.archive)) {
+    try (ArchiveBuilder builder = Archive.of(this.archive).setParallelism(this.parallelism).builder()) {
+      builder.setDeterministic(this.deterministic);
+      builder.setSourceDate(this.sourceDate);
+      builder.setCompression(this.compression);
       for (String input : this.patterns) {
         Matcher matcher = Assembly.PATTERN.matcher(input);
         if (matcher.find()) {
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.util.archive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * The {@link Compression} defines how an {@link ArchiveBuilder} compresses the entries. The level
+ * applies to the ZIP entries and to the GZip stream of a .tar.gz, a .tar.zst has its own level. ZIP
+ * entries with one of the extensions or starting with one of the magic numbers are stored without
+ * compression, as their content is already compressed.
+ */
+public class Compression {
+
+  static final int              ZSTD_DEFAULT_LEVEL    = 3;
+
+  private static final String[] COMPRESSED_EXTENSIONS = { "zip", "jar", "war", "ear", "apk", "aab", "ipa", "7z",
+      "gz", "tgz", "bz2", "xz", "zst", "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "ogg", "woff", "woff2" };
+
+  private static final byte[][] COMPRESSED_MAGICS     = { { 'P', 'K', 3, 4 }, // ZIP, JAR, APK, IPA
+      { 0x1f, (byte) 0x8b }, // GZip
+      { '7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c }, // 7-Zip
+      { 'B', 'Z', 'h' }, // BZip2
+      { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 }, // XZ
+      { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd }, // Zstandard
+      { (byte) 0x89, 'P', 'N', 'G' }, // PNG
+      { (byte) 0xff, (byte) 0xd8, (byte) 0xff } // JPEG
+  };
+
+
+  private int                   level                 = Deflater.DEFAULT_COMPRESSION;
+  private int                   zstdLevel             = Compression.ZSTD_DEFAULT_LEVEL;
+  private final Set<String>     extensions            = new HashSet<>();
+  private final List<byte[]>    magics                = new ArrayList<>();
+
+  /**
+   * Constructs an instance of {@link Compression}.
+   */
+  private Compression() {}
+
+  /**
+   * Gets the compression level.
+   */
+  public final int getLevel() {
+    return this.level;
+  }
+
+  /**
+   * Set the compression level, from 0 (no compression) to 9 (best compression).
+   *
+   * @param level
+   */
+  public final Compression setLevel(int level) {
+    if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+    this.level = level;
+    return this;
+  }
+
+  /**
+   * Gets the Zstandard compression level.
+   */
+  public final int getZstdLevel() {
+    return this.zstdLevel;
+  }
+
+  /**
+   * Set the Zstandard compression level, from 1 (fastest) to 22 (best compression).
+   *
+   * @param zstdLevel
+   */
+  public final Compression setZstdLevel(int zstdLevel) {
+    if ((zstdLevel < 1) || (zstdLevel > 22)) {
+      throw new IllegalArgumentException("Invalid Zstandard compression level " + zstdLevel);
+    }
+    this.zstdLevel = zstdLevel;
+    return this;
+  }
+
+  /**
+   * Stores the files with the extensions uncompressed.
+   *
+   * @param extensions
+   */
+  public final Compression addStored(String... extensions) {
+    for (String extension : extensions) {
+      String value = extension.startsWith(".") ? extension.substring(1) : extension;
+      this.extensions.add(value.toLowerCase(Locale.ROOT));
+    }
+    return this;
+  }
+
+  /**
+   * Stores the files starting with the magic number uncompressed.
+   *
+   * @param magic
+   */
+  public final Compression addStoredMagic(byte[] magic) {
+    this.magics.add(Arrays.copyOf(magic, magic.length));
+    return this;
+  }
+
+  /**
+   * Stores the well known compressed formats (archives, images, media) uncompressed.
+   */
+  public final Compression storeCompressed() {
+    addStored(Compression.COMPRESSED_EXTENSIONS);
+    for (byte[] magic : Compression.COMPRESSED_MAGICS) {
+      addStoredMagic(magic);
+    }
+    return this;
+  }
+
+  /**
+   * Gets the number of leading bytes required to check the magic numbers.
+   */
+  final int getMagicLength() {
+    int length = 0;
+    for (byte[] magic : this.magics) {
+      length = Math.max(length, magic.length);
+    }
+    return length;
+  }
+
+  /**
+   * Returns <code>true</code> if the entry should be stored uncompressed, because of the extension
+   * of the name or the magic number at the beginning of the content.
+   *
+   * @param name
+   * @param header
+   * @param length
+   */
+  final boolean isStored(String name, byte[] header, int length) {
+    if (this.level == Deflater.NO_COMPRESSION) {
+      return true;
+    }
+
+    int index = name.lastIndexOf('.');
+    if ((index > name.lastIndexOf('/')) && this.extensions.contains(name.substring(index + 1).toLowerCase(Locale.ROOT))) {
+      return true;
+    }
+
+    for (byte[] magic : this.magics) {
+      if (Compression.startsWith(header, length, magic)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns <code>true</code> if the header starts with the magic number.
+   *
+   * @param header
+   * @param length
+   * @param magic
+   */
+  private static boolean startsWith(byte[] header, int length, byte[] magic) {
+    if (length < magic.length) {
+      return false;
+    }
+    for (int i = 0; i < magic.length; i++) {
+      if (header[i] != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Constructs an instance of {@link Compression}, that compresses all entries with the default
+   * level.
+   */
+  public static Compression of() {
+    return new Compression();
+  }
+}
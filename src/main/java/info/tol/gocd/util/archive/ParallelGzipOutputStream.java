@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2001-2019 Territorium Online Srl / TOL GmbH. All Rights Reserved.
+ *
+ * This file contains Original Code and/or Modifications of Original Code as defined in and that are
+ * subject to the Territorium Online License Version 1.0. You may not use this file except in
+ * compliance with the License. Please obtain a copy of the License at http://www.tol.info/license/
+ * and read it before using this file.
+ *
+ * The Original Code and all software distributed under the License are distributed on an 'AS IS'
+ * basis, WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESS OR IMPLIED, AND TERRITORIUM ONLINE HEREBY
+ * DISCLAIMS ALL SUCH WARRANTIES, INCLUDING WITHOUT LIMITATION, ANY WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE, QUIET ENJOYMENT OR NON-INFRINGEMENT. Please see the License for
+ * the specific language governing rights and limitations under the License.
+ */
+
+package info.tol.gocd.util.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The {@link ParallelGzipOutputStream} compresses the data in independent blocks on a
+ * {@link ForkJoinPool}. Each block is written as a complete GZip member, the concatenated members
+ * are a valid GZip stream (RFC 1952) readable by any tool.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+  private static final int                  BLOCK_SIZE = 1024 * 1024;
+
+  private static final byte[]               HEADER     =
+      { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+
+  private final OutputStream                stream;
+  private final ForkJoinPool                pool;
+  private final int                         limit;
+  private final Deque<ForkJoinTask<byte[]>> blocks     = new ArrayDeque<>();
+
+  private int                               level      = Deflater.DEFAULT_COMPRESSION;
+  private byte[]                            buffer     = new byte[ParallelGzipOutputStream.BLOCK_SIZE];
+  private int                               count;
+  private boolean                           empty      = true;
+  private boolean                           closed;
+
+  /**
+   * Constructs an instance of {@link ParallelGzipOutputStream}.
+   *
+   * @param stream
+   * @param parallelism
+   */
+  ParallelGzipOutputStream(OutputStream stream, int parallelism) {
+    this.stream = stream;
+    this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    this.limit = 2 * Math.max(1, parallelism);
+  }
+
+  /**
+   * Set the compression level for the following blocks.
+   *
+   * @param level
+   */
+  public final void setLevel(int level) {
+    this.level = level;
+  }
+
+  /**
+   * Writes the specified byte to this output stream.
+   *
+   * @param b
+   */
+  @Override
+  public final void write(int b) throws IOException {
+    this.buffer[this.count++] = (byte) b;
+    if (this.count == this.buffer.length) {
+      submit();
+    }
+  }
+
+  /**
+   * Writes <code>len</code> bytes from the specified byte array starting at offset
+   * <code>off</code> to this output stream.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   */
+  @Override
+  public final void write(byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      int size = Math.min(length, this.buffer.length - this.count);
+      System.arraycopy(bytes, offset, this.buffer, this.count, size);
+      this.count += size;
+      offset += size;
+      length -= size;
+      if (this.count == this.buffer.length) {
+        submit();
+      }
+    }
+  }
+
+  /**
+   * Writes the compressed blocks, which are already completed.
+   */
+  @Override
+  public final void flush() throws IOException {
+    while (!this.blocks.isEmpty() && this.blocks.peekFirst().isDone()) {
+      writeBlock();
+    }
+    this.stream.flush();
+  }
+
+  /**
+   * Compresses the pending data and closes the underlying stream.
+   */
+  @Override
+  public final void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+
+    try {
+      if ((this.count > 0) || this.empty) {
+        submit();
+      }
+      while (!this.blocks.isEmpty()) {
+        writeBlock();
+      }
+    } finally {
+      this.pool.shutdownNow();
+      this.stream.close();
+    }
+  }
+
+  /**
+   * Submits the current buffer for compression, and writes the oldest blocks if too many are
+   * pending.
+   */
+  private void submit() throws IOException {
+    byte[] data = this.buffer;
+    int length = this.count;
+    int level = this.level;
+    this.blocks.addLast(this.pool.submit(() -> ParallelGzipOutputStream.compress(data, length, level)));
+    this.buffer = new byte[ParallelGzipOutputStream.BLOCK_SIZE];
+    this.count = 0;
+    this.empty = false;
+
+    while (this.blocks.size() > this.limit) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Waits for the oldest block and writes it to the underlying stream.
+   */
+  private void writeBlock() throws IOException {
+    try {
+      this.stream.write(this.blocks.removeFirst().get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Compresses the data to a single GZip member.
+   *
+   * @param data
+   * @param length
+   * @param level
+   */
+  private static byte[] compress(byte[] data, int length, int level) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+    output.write(ParallelGzipOutputStream.HEADER, 0, ParallelGzipOutputStream.HEADER.length);
+
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished()) {
+        int size = deflater.deflate(buffer);
+        output.write(buffer, 0, size);
+      }
+    } finally {
+      deflater.end();
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+    ParallelGzipOutputStream.writeInt(output, (int) crc.getValue());
+    ParallelGzipOutputStream.writeInt(output, length);
+    return output.toByteArray();
+  }
+
+  /**
+   * Writes an integer in little endian order.
+   *
+   * @param output
+   * @param value
+   */
+  private static void writeInt(ByteArrayOutputStream output, int value) {
+    output.write(value & 0xff);
+    output.write((value >> 8) & 0xff);
+    output.write((value >> 16) & 0xff);
+    output.write((value >> 24) & 0xff);
+  }
+}
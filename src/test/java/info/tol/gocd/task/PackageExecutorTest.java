@@ -0,0 +1,90 @@
+package info.tol.gocd.task;
+
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.tol.gocd.task.qt.PackageConfig;
+import info.tol.gocd.task.qt.PackageExecutor;
+import info.tol.gocd.test.TaskRequestBuilder;
+import info.tol.gocd.test.TestLogger;
+import info.tol.gocd.util.Environment;
+
+
+public class PackageExecutorTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void missingModuleTest() throws Exception {
+    TaskRequestBuilder request = TaskRequestBuilder.of(this.folder.getRoot(), new Environment());
+    request.set(PackageConfig.NAME, "1.0");
+    request.set(PackageConfig.SOURCE, "download/app.zip");
+
+    assertFailure(request, "Either 'Module Name' or 'Modules' must be defined");
+  }
+
+  @Test
+  public void missingSourcesTest() throws Exception {
+    TaskRequestBuilder request = TaskRequestBuilder.of(this.folder.getRoot(), new Environment());
+    request.set(PackageConfig.NAME, "1.0");
+    request.set(PackageConfig.MODULE, "tol.app");
+
+    assertFailure(request, "The 'Sources' of module 'tol.app' are not defined");
+  }
+
+  @Test
+  public void invalidModulesTest() throws Exception {
+    TaskRequestBuilder request = TaskRequestBuilder.of(this.folder.getRoot(), new Environment());
+    request.set(PackageConfig.NAME, "1.0");
+
+    request.set(PackageConfig.MODULES, "[ { \"source\": \"download/app.zip\" } ]");
+    assertFailure(request, "The module #1 requires a text 'module'");
+
+    request.set(PackageConfig.MODULES, "[ { \"module\": \"tol.app\", \"source\": [ \"a\", 1 ] } ]");
+    assertFailure(request, "The module 'tol.app' requires a text or a list of texts as 'source'");
+
+    request.set(PackageConfig.MODULES, "[ { \"module\": \"tol.app\", \"source\": \"a\", \"target\": 1 } ]");
+    assertFailure(request, "The module 'tol.app' requires a text as 'target'");
+  }
+
+  @Test
+  public void invalidParallelismTest() throws Exception {
+    TaskRequestBuilder request = TaskRequestBuilder.of(this.folder.getRoot(), new Environment());
+    request.set(PackageConfig.NAME, "1.0");
+    request.set(PackageConfig.MODULE, "tol.app");
+    request.set(PackageConfig.SOURCE, "download/app.zip");
+
+    request.set(PackageConfig.PARALLELISM, "four");
+    assertFailure(request, "The 'Parallelism' must be a number of at least 1, but is 'four'");
+
+    request.set(PackageConfig.PARALLELISM, "0");
+    assertFailure(request, "The 'Parallelism' must be a number of at least 1, but is '0'");
+  }
+
+  @Test
+  public void invalidConcurrencyTest() throws Exception {
+    TaskRequestBuilder request = TaskRequestBuilder.of(this.folder.getRoot(), new Environment());
+    request.set(PackageConfig.NAME, "1.0");
+    request.set(PackageConfig.MODULE, "tol.app");
+    request.set(PackageConfig.SOURCE, "download/app.zip");
+
+    request.set(PackageConfig.CONCURRENCY, "1.5");
+    assertFailure(request, "The 'Concurrent Packages' must be a number of at least 1, but is '1.5'");
+
+    request.set(PackageConfig.CONCURRENCY, "-2");
+    assertFailure(request, "The 'Concurrent Packages' must be a number of at least 1, but is '-2'");
+  }
+
+  private static void assertFailure(TaskRequestBuilder request, String message) {
+    PackageExecutor handler = new PackageExecutor(TestLogger.CONSOLE);
+    GoPluginApiResponse response = handler.handle(request.build());
+    Assert.assertEquals(DefaultGoApiResponse.INTERNAL_ERROR, response.responseCode());
+    Assert.assertTrue(response.responseBody(), response.responseBody().contains(message));
+  }
+}
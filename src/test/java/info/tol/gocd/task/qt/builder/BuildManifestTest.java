@@ -0,0 +1,45 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.LocalDate;
+
+import javax.json.JsonValue;
+
+
+public class BuildManifestTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void sharedManifestTest() throws Exception {
+    File workingDir = this.folder.getRoot();
+    File file = new File(workingDir, BuildManifest.NAME);
+
+    BuildManifest first = BuildManifest.load(file, workingDir);
+    first.setPackage("tol.app", "a", "1.0.0", LocalDate.of(2020, 1, 1), JsonValue.EMPTY_JSON_ARRAY);
+    first.setPackage("tol.doc", "b", "2.0.0", LocalDate.of(2020, 2, 2), JsonValue.EMPTY_JSON_ARRAY);
+    first.save();
+
+    // A second task keeps the packages of the first task
+    BuildManifest second = BuildManifest.load(file, workingDir);
+    second.setPackage("tol.doc", "c", "2.1.0", LocalDate.of(2020, 3, 3), JsonValue.EMPTY_JSON_ARRAY);
+    second.setPackage("tol.lib", "d", "3.0.0", null, JsonValue.EMPTY_JSON_ARRAY);
+    second.save();
+
+    BuildManifest manifest = BuildManifest.load(file, workingDir);
+    Assert.assertEquals("a", manifest.getDigest("tol.app"));
+    Assert.assertEquals("1.0.0", manifest.getVersion("tol.app"));
+    Assert.assertEquals(LocalDate.of(2020, 1, 1), manifest.getReleaseDate("tol.app"));
+    Assert.assertEquals("c", manifest.getDigest("tol.doc"));
+    Assert.assertEquals("2.1.0", manifest.getVersion("tol.doc"));
+    Assert.assertEquals("d", manifest.getDigest("tol.lib"));
+    Assert.assertNull(manifest.getReleaseDate("tol.lib"));
+    Assert.assertFalse(new File(workingDir, BuildManifest.NAME + ".tmp").exists());
+  }
+}
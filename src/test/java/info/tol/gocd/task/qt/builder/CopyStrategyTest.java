@@ -0,0 +1,40 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+
+public class CopyStrategyTest {
+
+  @Test
+  public void ofTest() {
+    Assert.assertEquals(CopyStrategy.COPY, CopyStrategy.of(null));
+    Assert.assertEquals(CopyStrategy.COPY, CopyStrategy.of(" "));
+    Assert.assertEquals(CopyStrategy.HARDLINK, CopyStrategy.of(" hardlink "));
+    Assert.assertEquals(CopyStrategy.MOVE, CopyStrategy.of("Move"));
+  }
+
+  @Test
+  public void localeTest() {
+    Locale locale = Locale.getDefault();
+    try {
+      // The dotless upper case i of the turkish locale
+      Locale.setDefault(new Locale("tr", "TR"));
+      Assert.assertEquals(CopyStrategy.HARDLINK, CopyStrategy.of("hardlink"));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void unknownTest() {
+    try {
+      CopyStrategy.of("symlink");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("Unknown copy strategy 'symlink', allowed are COPY, HARDLINK, REFLINK, MOVE", e.getMessage());
+    }
+  }
+}
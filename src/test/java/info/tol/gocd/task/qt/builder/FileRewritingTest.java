@@ -0,0 +1,73 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+
+public class FileRewritingTest {
+
+  private static final UnaryOperator<String> MAPPER = l -> l.replace("$VERSION", "1.2");
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void rewriteTest() throws Exception {
+    Path file = this.folder.newFile("install.qs").toPath();
+    Files.write(file, "version $VERSION\r\nname\r\n\u00fcber $VERSION".getBytes(StandardCharsets.UTF_8));
+    Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-x---"));
+
+    // The line endings, the missing final line ending and the permissions are kept
+    Assert.assertTrue(FileRewriting.rewrite(file, FileRewritingTest.MAPPER));
+    Assert.assertEquals("version 1.2\r\nname\r\n\u00fcber 1.2",
+        new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    Assert.assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    Assert.assertArrayEquals(new String[] { "install.qs" }, this.folder.getRoot().list());
+  }
+
+  @Test
+  public void longLineTest() throws Exception {
+    char[] chars = new char[10000];
+    Arrays.fill(chars, 'x');
+    String text = new String(chars) + "$VERSION\n$VERSION\n\n";
+
+    // A line, that crosses the buffer boundary, is mapped as a whole
+    Path file = this.folder.newFile().toPath();
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(FileRewriting.rewrite(file, l -> l.startsWith("x") ? l.length() + "\n" : l));
+    Assert.assertEquals("10009\n$VERSION\n\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void unchangedTest() throws Exception {
+    FileTime time = FileTime.fromMillis(1500000000000L);
+    byte[] text = "name\r\nversion\n".getBytes(StandardCharsets.UTF_8);
+    byte[] binary = "$VERSION\u0000$VERSION".getBytes(StandardCharsets.UTF_8);
+    byte[] latin1 = "\u00fcber $VERSION".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Files without a substitution, binary files and files, which are not UTF-8, are not touched
+    for (byte[] content : new byte[][] { text, binary, latin1, new byte[0] }) {
+      Path file = this.folder.newFile().toPath();
+      Files.write(file, content);
+      Files.setLastModifiedTime(file, time);
+      Object key = Files.readAttributes(file, "unix:ino").get("ino");
+
+      Assert.assertFalse(FileRewriting.rewrite(file, FileRewritingTest.MAPPER));
+      Assert.assertArrayEquals(content, Files.readAllBytes(file));
+      Assert.assertEquals(time, Files.getLastModifiedTime(file));
+      Assert.assertEquals(key, Files.readAttributes(file, "unix:ino").get("ino"));
+      Assert.assertFalse(Files.exists(file.resolveSibling("." + file.getFileName() + ".tmp")));
+    }
+    Assert.assertFalse(FileRewriting.rewrite(this.folder.newFolder().toPath(), FileRewritingTest.MAPPER));
+  }
+}
@@ -0,0 +1,66 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+public class FileTreeCopyingTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void reflinkTest() throws Exception {
+    for (int parallelism : new int[] { 1, 4 }) {
+      Path source = this.folder.newFolder().toPath();
+      Path target = this.folder.newFolder().toPath();
+      Path cache = this.folder.newFolder().toPath();
+      FileTreeCopyingTest.write(source.resolve("a.txt"), "new a");
+      FileTreeCopyingTest.write(source.resolve("dir/b.txt"), "new b");
+      FileTreeCopyingTest.write(cache.resolve("a.txt"), "cached a");
+      FileTreeCopyingTest.write(cache.resolve("b.txt"), "cached b");
+
+      // The targets linked by a previous build are replaced, the linked files are kept
+      Files.createLink(target.resolve("a.txt"), cache.resolve("a.txt"));
+      Files.createDirectories(target.resolve("dir"));
+      Files.createLink(target.resolve("dir/b.txt"), cache.resolve("b.txt"));
+      FileTreeCopyingTest.write(target.resolve("other.txt"), "other");
+
+      FileTreeCopying.copyFileTree(source, target, CopyStrategy.REFLINK, parallelism);
+      Assert.assertEquals("new a", FileTreeCopyingTest.read(target.resolve("a.txt")));
+      Assert.assertEquals("new b", FileTreeCopyingTest.read(target.resolve("dir/b.txt")));
+      Assert.assertEquals("other", FileTreeCopyingTest.read(target.resolve("other.txt")));
+      Assert.assertEquals("cached a", FileTreeCopyingTest.read(cache.resolve("a.txt")));
+      Assert.assertEquals("cached b", FileTreeCopyingTest.read(cache.resolve("b.txt")));
+      Assert.assertEquals(0, target.getParent().toFile().list((dir, name) -> name.startsWith(".reflink")).length);
+    }
+  }
+
+  @Test
+  public void reflinkFileTest() throws Exception {
+    Path source = this.folder.newFolder().toPath().resolve("a.txt");
+    Path target = this.folder.newFolder().toPath().resolve("b.txt");
+    FileTreeCopyingTest.write(source, "a");
+
+    FileTreeCopying.copyFileTree(source, target, CopyStrategy.REFLINK);
+    Assert.assertEquals("a", FileTreeCopyingTest.read(target));
+    Assert.assertArrayEquals(new File[] { target.toFile() }, target.getParent().toFile().listFiles());
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+}
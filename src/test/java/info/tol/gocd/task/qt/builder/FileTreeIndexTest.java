@@ -0,0 +1,86 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import info.tol.gocd.util.Environment;
+
+
+public class FileTreeIndexTest {
+
+  private static final String[] FILES = { "download/app-1.0.tar", "download/app-1.0/lib/app.jar",
+      "download/app-2.1.tar", "download/doc/readme.txt", "download-old/app-0.9.tar", "lib/bar.jar", "lib/foo/bar.jar" };
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void findTest() throws Exception {
+    File workingDir = createWorkingDir();
+    FileTreeIndex index = FileTreeIndex.of(workingDir);
+
+    // The sub tree of a matching directory is skipped, the separator is sorted first
+    Assert.assertEquals(Arrays.asList("download/app-1.0", "download/app-1.0.tar", "download/app-2.1.tar",
+        "download/doc", "download-old/app-0.9.tar"), FileTreeIndexTest.find(workingDir, index, "download[^/]*/.*"));
+    Assert.assertEquals(Arrays.asList("lib/bar.jar", "lib/foo/bar.jar"),
+        FileTreeIndexTest.find(workingDir, index, "lib/(?:foo/)?bar.jar"));
+    Assert.assertEquals(Arrays.asList(), FileTreeIndexTest.find(workingDir, index, "download/missing/.*"));
+
+    // The named groups are provided as parameters of the match
+    List<PathMatcher> matchers = index.find(new Environment(), "download/app-(?<VERSION>[0-9.]+).tar");
+    Assert.assertEquals(2, matchers.size());
+    Assert.assertEquals("1.0", matchers.get(0).getEnvironment().get("VERSION"));
+    Assert.assertEquals("2.1", matchers.get(1).getEnvironment().get("VERSION"));
+    Assert.assertEquals("target-2.1", matchers.get(1).map("target-$VERSION"));
+  }
+
+  @Test
+  public void invalidateTest() throws Exception {
+    File workingDir = createWorkingDir();
+    FileTreeIndex index = FileTreeIndex.of(workingDir);
+    Assert.assertEquals(Arrays.asList("download/app-1.0/lib/app.jar"),
+        FileTreeIndexTest.find(workingDir, index, "download/.*\\.jar"));
+
+    // The extracted directory is only found after it has been invalidated
+    FileTreeIndexTest.createFile(workingDir.toPath().resolve("download/app-2.1/lib/app.jar"));
+    Files.delete(workingDir.toPath().resolve("download/app-1.0/lib/app.jar"));
+    Assert.assertEquals(Arrays.asList("download/app-1.0/lib/app.jar"),
+        FileTreeIndexTest.find(workingDir, index, "download/.*\\.jar"));
+
+    index.invalidate(new File(workingDir, "download/app-1.0"));
+    index.invalidate(new File(workingDir, "download/app-2.1"));
+    Assert.assertEquals(Arrays.asList("download/app-2.1/lib/app.jar", "lib/bar.jar", "lib/foo/bar.jar"),
+        FileTreeIndexTest.find(workingDir, index, "(?:download/app-2.1/lib|lib(?:/foo)?)/[a-z]+\\.jar"));
+    Assert.assertEquals(Arrays.asList("download/app-2.1/lib/app.jar"),
+        FileTreeIndexTest.find(workingDir, index, "download/.*\\.jar"));
+  }
+
+  private File createWorkingDir() throws IOException {
+    File workingDir = this.folder.newFolder();
+    for (String name : FileTreeIndexTest.FILES) {
+      FileTreeIndexTest.createFile(workingDir.toPath().resolve(name));
+    }
+    return workingDir;
+  }
+
+  private static void createFile(Path path) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.createFile(path);
+  }
+
+  private static List<String> find(File workingDir, FileTreeIndex index, String pattern) throws IOException {
+    return index.find(new Environment(), pattern).stream()
+        .map(m -> workingDir.toPath().relativize(m.getFile().toPath()).toString().replace('\\', '/'))
+        .collect(Collectors.toList());
+  }
+}
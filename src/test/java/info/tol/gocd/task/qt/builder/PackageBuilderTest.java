@@ -0,0 +1,39 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.tol.gocd.task.qt.Constants;
+import info.tol.gocd.util.Environment;
+
+
+public class PackageBuilderTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void cacheSizeTest() throws Exception {
+    Environment environment = new Environment();
+    Assert.assertNull(PackageBuilder.of(this.folder.getRoot(), environment).getCache());
+
+    environment.set(Constants.ENV_CACHE, this.folder.newFolder().getAbsolutePath());
+    Assert.assertNotNull(PackageBuilder.of(this.folder.getRoot(), environment).getCache());
+
+    environment.set(Constants.ENV_CACHE_SIZE, " 512 ");
+    Assert.assertNotNull(PackageBuilder.of(this.folder.getRoot(), environment).getCache());
+
+    for (String value : new String[] { "10G", "0", "-1", "9223372036854775807" }) {
+      environment.set(Constants.ENV_CACHE_SIZE, value);
+      try {
+        PackageBuilder.of(this.folder.getRoot(), environment).getCache();
+        Assert.fail(value);
+      } catch (IllegalArgumentException e) {
+        Assert.assertEquals(String.format("The '%s' must be a number of at least 1, but is '%s'",
+            Constants.ENV_CACHE_SIZE, value), e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import info.tol.gocd.task.qt.Constants;
+import info.tol.gocd.util.Environment;
+
+
+public class PackageDataTest {
+
+  private static final String PACKAGE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Package>\n"
+      + "    <Version>0.00.0</Version>\n    <ReleaseDate>2009-04-23</ReleaseDate>\n</Package>\n";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void danglingLinkTest() throws Exception {
+    for (boolean streaming : new boolean[] { false, true }) {
+      File workingDir = createWorkingDir("tol.test");
+      try (TarArchiveOutputStream tar =
+          new TarArchiveOutputStream(new FileOutputStream(new File(workingDir, "download/app-1.0.tar")))) {
+        PackageDataTest.addFile(tar, "app/bin/run.sh", "#!/bin/sh\n");
+        PackageDataTest.addLink(tar, "app/bin/outside", "../../../etc/passwd");
+        PackageDataTest.addLink(tar, "app/bin/filtered", "../doc/readme.txt");
+        PackageDataTest.addFile(tar, "app/doc/readme.txt", "readme\n");
+      }
+
+      PackageBuilder builder = PackageBuilder.of(workingDir, new Environment());
+      builder.setPackagePath("packages");
+      builder.setStreaming(streaming);
+      builder.addPackage("tol.test", "download/app-1.0.tar!app/bin", "bin");
+      builder.build();
+
+      Path data = workingDir.toPath().resolve("build/packages/tol.test/data/bin");
+      Assert.assertTrue(Files.isRegularFile(data.resolve("run.sh")));
+      Assert.assertTrue(Files.isSymbolicLink(data.resolve("outside")));
+      Assert.assertTrue(Files.isSymbolicLink(data.resolve("filtered")));
+      Assert.assertFalse(Files.exists(data.resolve("filtered")));
+      Assert.assertFalse(Files.exists(data.resolve("../doc"), LinkOption.NOFOLLOW_LINKS));
+    }
+  }
+
+  @Test
+  public void rebuildLinkTest() throws Exception {
+    for (boolean streaming : new boolean[] { false, true }) {
+      File workingDir = createWorkingDir("tol.test");
+      File archive = new File(workingDir, "download/app.tar");
+
+      // The changed archive is extracted again over the existing link
+      Path data = workingDir.toPath().resolve("build/packages/tol.test/data");
+      for (String content : new String[] { "#!/bin/sh\n", "#!/bin/bash\n" }) {
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(archive))) {
+          PackageDataTest.addFile(tar, "app/bin/run.sh", content);
+          PackageDataTest.addLink(tar, "app/bin/link", "run.sh");
+        }
+
+        PackageBuilder builder = PackageBuilder.of(workingDir, new Environment());
+        builder.setPackagePath("packages");
+        builder.setStreaming(streaming);
+        builder.addPackage("tol.test", "download/app.tar!app/bin", "bin");
+        builder.build();
+
+        Assert.assertTrue(Files.isSymbolicLink(data.resolve("bin/link")));
+        Assert.assertEquals(content, PackageDataTest.read(data.resolve("bin/link")));
+      }
+    }
+  }
+
+  @Test
+  public void extractedArchiveTest() throws Exception {
+    File workingDir = createWorkingDir("tol.test");
+    try (TarArchiveOutputStream tar =
+        new TarArchiveOutputStream(new FileOutputStream(new File(workingDir, "download/app.tar")))) {
+      PackageDataTest.addFile(tar, "app/bin/run.sh", "#!/bin/sh\n");
+      PackageDataTest.addFile(tar, "app/doc/readme.txt", "readme\n");
+    }
+
+    // By default the archive is extracted next to it, for other source lines and tasks
+    PackageBuilder builder = PackageBuilder.of(workingDir, new Environment());
+    builder.setPackagePath("packages");
+    builder.setCopyStrategy(CopyStrategy.HARDLINK);
+    builder.addPackage("tol.test", "download/app.tar!app/bin;bin\ndownload/app/app/bin/run.sh;run.sh", "");
+    builder.build();
+
+    Path data = workingDir.toPath().resolve("build/packages/tol.test/data");
+    Path extracted = workingDir.toPath().resolve("download/app/app/bin/run.sh");
+    Assert.assertEquals("#!/bin/sh\n", PackageDataTest.read(extracted));
+    Assert.assertTrue(Files.isSameFile(extracted, data.resolve("bin/run.sh")));
+    Assert.assertEquals("#!/bin/sh\n", PackageDataTest.read(data.resolve("run.sh")));
+    Assert.assertFalse(Files.exists(workingDir.toPath().resolve("download/app/app/doc")));
+  }
+
+  @Test
+  public void repackedArchiveTest() throws Exception {
+    for (boolean streaming : new boolean[] { false, true }) {
+      File workingDir = createWorkingDir("tol.test");
+      File archive = new File(workingDir, "download/app.tar");
+      Path info = workingDir.toPath().resolve("build/packages/tol.test/meta/package.xml");
+
+      // The repacked archive with the same content keeps the release date, changed content not
+      String[][] builds = { { "2020-01-01", "run" }, { "2021-06-01", "run" }, { "2022-03-01", "changed" } };
+      String[] expected = { "2020-01-01", "2020-01-01", "2022-03-01" };
+      for (int i = 0; i < builds.length; i++) {
+        long date = LocalDate.parse(builds[i][0]).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(archive))) {
+          PackageDataTest.addFile(tar, "app/bin/run.sh", builds[i][1], date);
+        }
+
+        PackageBuilder builder = PackageBuilder.of(workingDir, new Environment());
+        builder.setPackagePath("packages");
+        builder.setStreaming(streaming);
+        builder.addPackage("tol.test", "download/app.tar!app/bin", "bin");
+        builder.build();
+
+        String content = PackageDataTest.read(info);
+        Assert.assertTrue(content, content.contains("<ReleaseDate>" + expected[i] + "</ReleaseDate>"));
+      }
+    }
+  }
+
+  @Test
+  public void subPathTest() throws Exception {
+    Environment cache = new Environment();
+    cache.set(Constants.ENV_CACHE, this.folder.newFolder().getAbsolutePath());
+
+    // The archive is extracted, streamed directly or extracted through the cache, with the same result
+    Environment[] environments = { new Environment(), new Environment(), cache };
+    for (int i = 0; i < environments.length; i++) {
+      Environment environment = environments[i];
+      File workingDir = createWorkingDir("tol.test");
+      try (TarArchiveOutputStream tar =
+          new TarArchiveOutputStream(new FileOutputStream(new File(workingDir, "download/app.tar")))) {
+        PackageDataTest.addFile(tar, "app/lib/core.jar", "core");
+        PackageDataTest.addFile(tar, "app/plugins/alpha-3.2/plugin.xml", "alpha");
+        PackageDataTest.addFile(tar, "app/plugins/beta-3.2/plugin.xml", "beta");
+        PackageDataTest.addFile(tar, "app/plugins/beta-3.2/lib/beta.jar", "beta");
+      }
+
+      PackageBuilder builder = PackageBuilder.of(workingDir, environment);
+      builder.setPackagePath("packages");
+      builder.setStreaming(i == 1);
+      builder.addPackage("tol.test",
+          "download/app.tar!app/plugins/(?<PLUGIN>[a-z]+)-(?<VERSION>[0-9.]+)", "$PLUGIN");
+      builder.build();
+
+      Path data = workingDir.toPath().resolve("build/packages/tol.test/data");
+      Assert.assertEquals("alpha", PackageDataTest.read(data.resolve("alpha/plugin.xml")));
+      Assert.assertEquals("beta", PackageDataTest.read(data.resolve("beta/plugin.xml")));
+      Assert.assertEquals("beta", PackageDataTest.read(data.resolve("beta/lib/beta.jar")));
+      Assert.assertFalse(Files.exists(data.resolve("lib")));
+      Assert.assertFalse(Files.exists(data.resolve("plugin.xml")));
+
+      String info = PackageDataTest.read(data.resolveSibling("meta/package.xml"));
+      Assert.assertTrue(info, info.contains("<Version>3.02"));
+    }
+  }
+
+  @Test
+  public void skippedLineTest() throws Exception {
+    Environment environment = new Environment();
+    environment.set(Constants.ENV_CACHE, this.folder.newFolder().getAbsolutePath());
+
+    File workingDir = createWorkingDir("tol.test");
+    try (TarArchiveOutputStream tar =
+        new TarArchiveOutputStream(new FileOutputStream(new File(workingDir, "download/app.tar")))) {
+      PackageDataTest.addFile(tar, "app/plugins/alpha-3.2/plugin.xml", "alpha");
+    }
+    Path readme = workingDir.toPath().resolve("download/doc-1.5/readme.txt");
+    Files.createDirectories(readme.getParent());
+
+    // The second build skips the archive, but keeps the version of its match
+    Path info = workingDir.toPath().resolve("build/packages/tol.test/meta/package.xml");
+    for (String content : new String[] { "readme", "changed readme" }) {
+      Files.write(readme, content.getBytes(StandardCharsets.UTF_8));
+
+      PackageBuilder builder = PackageBuilder.of(workingDir, environment);
+      builder.setPackagePath("packages");
+      builder.addPackage("tol.test", "download/doc-(?<VERSION>[0-9.]+);doc\n"
+          + "download/app.tar!app/plugins/(?<PLUGIN>[a-z]+)-(?<VERSION>[0-9.]+)", "");
+      builder.build();
+
+      Assert.assertTrue(PackageDataTest.read(info), PackageDataTest.read(info).contains("<Version>3."));
+    }
+  }
+
+  /**
+   * Creates a working directory with the meta data of the package.
+   *
+   * @param name
+   */
+  private File createWorkingDir(String name) throws IOException {
+    File workingDir = this.folder.newFolder();
+    Path meta = workingDir.toPath().resolve(Paths.get("packages", name, PackageBuilder.META));
+    Files.createDirectories(meta);
+    Files.write(meta.resolve("package.xml"), PackageDataTest.PACKAGE.getBytes(StandardCharsets.UTF_8));
+    Files.createDirectories(workingDir.toPath().resolve("download"));
+    return workingDir;
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  private static void addFile(TarArchiveOutputStream tar, String name, String content) throws IOException {
+    PackageDataTest.addFile(tar, name, content, System.currentTimeMillis());
+  }
+
+  private static void addFile(TarArchiveOutputStream tar, String name, String content, long date)
+      throws IOException {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setModTime(date);
+    entry.setSize(bytes.length);
+    tar.putArchiveEntry(entry);
+    tar.write(bytes);
+    tar.closeArchiveEntry();
+  }
+
+  private static void addLink(TarArchiveOutputStream tar, String name, String target) throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+    entry.setLinkName(target);
+    tar.putArchiveEntry(entry);
+    tar.closeArchiveEntry();
+  }
+}
@@ -0,0 +1,83 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+
+import info.tol.gocd.task.qt.Constants;
+import info.tol.gocd.util.Environment;
+
+
+public class PackageInfoTest {
+
+  private static final LocalDate DATE = LocalDate.of(2020, 2, 3);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void updateTest() throws Exception {
+    File workingDir = this.folder.getRoot();
+    Path file = PackageInfoTest.write(workingDir, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!-- Copyright -->\n<?qt-installer format=\"1\"?>\n<Package>\n    <!-- The display name -->\n"
+        + "    <DisplayName lang=\"de\">App &amp; Tools</DisplayName>\n    <Version>0.0.0</Version>\n"
+        + "    <ReleaseDate>2019-01-01</ReleaseDate>\n    <Default>true</Default>\n</Package>\n<!-- End -->\n");
+
+    // Only the version and the release date are replaced, the prolog and the comments are kept
+    PackageInfo info = new PackageInfo(new Environment().set(Constants.ENV_VERSION, "2.1.3"));
+    info.updatePackageInfo("app", PackageInfoTest.DATE, workingDir);
+    Assert.assertEquals("2.1.3", info.getVersion());
+    Assert.assertEquals(PackageInfoTest.DATE, info.getReleaseDate());
+    Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!-- Copyright -->\n<?qt-installer format=\"1\"?>\n<Package>\n    <!-- The display name -->\n"
+        + "    <DisplayName lang=\"de\">App &amp; Tools</DisplayName>\n    <Version>2.1.3</Version>\n"
+        + "    <ReleaseDate>2020-02-03</ReleaseDate>\n    <Default>true</Default>\n</Package>\n<!-- End -->\n",
+        PackageInfoTest.read(file));
+  }
+
+  @Test
+  public void unchangedTest() throws Exception {
+    File workingDir = this.folder.getRoot();
+    Path file = PackageInfoTest.write(workingDir, "<?xml version=\"1.0\"?>\n"
+        + "<Package>\n<Version>2.1.3</Version>\n<ReleaseDate>2020-02-03</ReleaseDate>\n</Package>");
+    FileTime time = FileTime.fromMillis(1500000000000L);
+    Files.setLastModifiedTime(file, time);
+
+    // The up to date package info is not written
+    PackageInfo info = new PackageInfo(new Environment().set(Constants.ENV_VERSION, "2.1.3"));
+    Assert.assertNull(info.readPackageInfo(file.toFile(), PackageInfoTest.DATE));
+    info.updatePackageInfo("app", PackageInfoTest.DATE, workingDir);
+    Assert.assertEquals(time, Files.getLastModifiedTime(file));
+    Assert.assertEquals("2.1.3", info.getVersion());
+
+    // The release of a previous build replaces the calculated values
+    PackageInfo previous = new PackageInfo(new Environment().set(Constants.ENV_VERSION, "2.1.3"));
+    previous.setRelease("2.01", LocalDate.of(2020, 1, 1));
+    Assert.assertNotNull(previous.readPackageInfo(file.toFile(), PackageInfoTest.DATE));
+    previous.updatePackageInfo("app", PackageInfoTest.DATE, workingDir);
+    Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Package>\n<Version>2.01</Version>\n<ReleaseDate>2020-01-01</ReleaseDate>\n</Package>\n",
+        PackageInfoTest.read(file));
+    Assert.assertArrayEquals(new String[] { "package.xml" }, file.getParent().toFile().list());
+  }
+
+  private static Path write(File workingDir, String content) throws IOException {
+    Path file = workingDir.toPath().resolve("app/meta/package.xml");
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,98 @@
+package info.tol.gocd.task.qt.builder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import info.tol.gocd.util.Environment;
+
+
+public class PathPatternTest {
+
+  private static final String[] FILES    = { "build/a/x", "build/b/c/x", "build/ax", "build/bx/y", "build/a.b/x",
+      "download/foo-1.0.tar.gz", "download/foo-2.0/lib/foo.jar", "lib/foo/bar.jar", "lib/baz.jar" };
+
+  private static final String[] PATTERNS = { "build/a/x", "build/(?:a|.)*x", "build/(.)+", "build/((?:.))*x",
+      "build/(.){2,}/x", "build/(.)?x", "build/.*x", "build/[^/]+/x", "build/[a-z.]+/x", "build/a\\.b/x",
+      "download/foo-(?<VERSION>[0-9.]+).tar.gz", "download/foo-[0-9.]+/(?:lib|.)+", "lib/.+\\.jar",
+      "(?:lib|build)/.*", "lib/(?:foo/)?bar.jar" };
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void quantifiedGroupTest() {
+    Assert.assertTrue(PathPattern.compile("build/(?:a|.)*x").isPrefix("build/b/c"));
+    Assert.assertTrue(PathPattern.compile("build/(.)+").isPrefix("build/b/c"));
+    Assert.assertTrue(PathPattern.compile("build/((?:.))*x").isPrefix("build/b/c"));
+    Assert.assertFalse(PathPattern.compile("build/(a)*x").isPrefix("build/b"));
+    Assert.assertFalse(PathPattern.compile("build/(?:a|.)x").isPrefix("build/ax"));
+  }
+
+  @Test
+  public void pruningTest() throws Exception {
+    File workingDir = this.folder.getRoot();
+    for (String name : PathPatternTest.FILES) {
+      Path path = workingDir.toPath().resolve(name);
+      Files.createDirectories(path.getParent());
+      Files.createFile(path);
+    }
+
+    // The pruned index finds the same matches as the plain regular expression
+    FileTreeIndex index = FileTreeIndex.of(workingDir);
+    for (String pattern : PATTERNS) {
+      Set<String> expected = PathPatternTest.findMatches(workingDir.toPath(), pattern);
+      Assert.assertEquals(pattern, expected,
+          PathPatternTest.toNames(workingDir, index.find(new Environment(), pattern)));
+    }
+  }
+
+  /**
+   * Walks the whole tree and matches each path with the regular expression. The sub tree of a
+   * matching directory is skipped.
+   *
+   * @param root
+   * @param pattern
+   */
+  private static Set<String> findMatches(Path root, String pattern) throws IOException {
+    Pattern regex = Pattern.compile("^" + pattern + "$");
+    Set<String> matches = new TreeSet<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        return visitFile(dir, attrs);
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        String name = root.relativize(file).toString().replace('\\', '/');
+        if (!name.isEmpty() && regex.matcher(name).matches()) {
+          matches.add(name);
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return matches;
+  }
+
+  private static Set<String> toNames(File workingDir, List<PathMatcher> matchers) {
+    return matchers.stream().map(m -> workingDir.toPath().relativize(m.getFile().toPath()).toString().replace('\\', '/'))
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+}
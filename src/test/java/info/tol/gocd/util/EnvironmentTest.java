@@ -0,0 +1,80 @@
+package info.tol.gocd.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class EnvironmentTest {
+
+  @Test
+  public void layerTest() {
+    Environment environment = new Environment().set("HOME", "/home/go").set("VERSION", "1.0");
+    Map<String, String> params = new HashMap<>();
+    params.put("1", "app");
+    params.put("VERSION", "2.0");
+
+    // The child holds only its parameters and delegates to the parent
+    Environment child = environment.clone(params);
+    params.put("1", "changed");
+    Assert.assertEquals("app", child.get("1"));
+    Assert.assertEquals("2.0", child.get("VERSION"));
+    Assert.assertEquals("/home/go", child.get("HOME"));
+    Assert.assertTrue(child.isSet("HOME"));
+    Assert.assertFalse(child.isSet("missing"));
+    Assert.assertNull(child.get("missing"));
+    Assert.assertEquals("app-2.0 /home/go", child.replaceByPattern("$1-$VERSION $HOME"));
+
+    Map<String, String> own = new HashMap<>();
+    own.put("1", "app");
+    own.put("VERSION", "2.0");
+    Assert.assertEquals(own, child.getParameters());
+
+    Map<String, String> all = new HashMap<>(own);
+    all.put("HOME", "/home/go");
+    Assert.assertEquals(all, child.toMap());
+    Assert.assertEquals("1.0", environment.get("VERSION"));
+    Assert.assertFalse(environment.isSet("1"));
+
+    // The grand child sees all layers, a clone keeps the parent
+    Environment grandChild = child.clone(Collections.singletonMap("2", "lib"));
+    Assert.assertEquals("app/lib/2.0/home/go", grandChild.replaceByPattern("$1/$2/$VERSION$HOME"));
+    Environment copy = child.clone().set("1", "other");
+    Assert.assertEquals("other", copy.get("1"));
+    Assert.assertEquals("app", child.get("1"));
+    Assert.assertEquals("/home/go", copy.get("HOME"));
+  }
+
+  @Test
+  public void addTest() {
+    Environment environment = new Environment().set("HOME", "/home/go").set("VERSION", "1.0");
+    Environment first = environment.clone(Collections.singletonMap("1", "app"));
+    Environment second = environment.clone(Collections.singletonMap("VERSION", "2.0"));
+
+    // An empty environment takes over the parent of the first match
+    Environment merged = new Environment().add(first).add(second);
+    Assert.assertEquals("app", merged.get("1"));
+    Assert.assertEquals("2.0", merged.get("VERSION"));
+    Assert.assertEquals("/home/go", merged.get("HOME"));
+    Assert.assertEquals(2, merged.getParameters().size());
+    Assert.assertEquals("1.0", environment.get("VERSION"));
+
+    // A parameter, that is no longer overwritten, is taken from the parent again
+    Environment reset = environment.clone(Collections.singletonMap("VERSION", "2.0"));
+    reset.add(environment.clone(Collections.singletonMap("1", "lib")));
+    Assert.assertEquals("1.0", reset.get("VERSION"));
+    Assert.assertEquals("lib", reset.get("1"));
+
+    // Environments of a different parent are flattened
+    Environment other = Environment.of(Collections.singletonMap("HOME", "/root"));
+    Environment flat = new Environment().set("NAME", "x").add(other.clone(Collections.singletonMap("1", "bin")));
+    Map<String, String> all = new HashMap<>();
+    all.put("NAME", "x");
+    all.put("HOME", "/root");
+    all.put("1", "bin");
+    Assert.assertEquals(all, flat.toMap());
+  }
+}
@@ -0,0 +1,71 @@
+package info.tol.gocd.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+public class TemplateTest {
+
+  private static final Pattern PARAMS = Pattern.compile("\\$([0-9]+|[a-z][a-z_0-9]*)", Pattern.CASE_INSENSITIVE);
+
+  private static final String[] TEXTS = { "", "app", "$", "$$", "$ $-1", "$1", "$12x", "$0/$1-$2", "${VERSION}",
+      "app-$VERSION.tar", "$VERSION_2$Name-9 $_x $missing", "a$b$$c$", "cost: 10$, $1.5", "\u00fcber-$VERSION-\u00fc" };
+
+  @Test
+  public void renderTest() {
+    Environment environment = new Environment();
+    environment.set("0", "all").set("1", "one").set("12", "twelve").set("VERSION", "1.2.3");
+    environment.set("VERSION_2", "2").set("Name", "n").set("b", "");
+
+    // The rendering is the same as the replacement by the regular expression
+    for (String text : TemplateTest.TEXTS) {
+      Assert.assertEquals(text, TemplateTest.replace(environment, text), Template.compile(text).render(environment));
+      Assert.assertEquals(text, TemplateTest.replace(environment, text), environment.replaceByPattern(text));
+    }
+
+    Assert.assertEquals("app-1.2.3.tar", Template.of("app-$VERSION.tar").render(environment));
+    Assert.assertEquals("$missing/1.2.3", Template.of("$missing/$VERSION").render(environment));
+    Assert.assertEquals(">twelve", Template.of("$12").render(environment, new StringBuilder(">")).toString());
+  }
+
+  @Test
+  public void literalTest() {
+    Template template = Template.compile("cost: 10$, $-1");
+    Assert.assertTrue(template.isLiteral());
+    Assert.assertSame(template.toString(), template.render(new Environment().set("1", "one")));
+    Assert.assertFalse(Template.compile("$1").isLiteral());
+  }
+
+  @Test
+  public void cacheTest() {
+    // Short texts are cached, large texts are compiled for each use
+    Assert.assertSame(Template.of("app-$VERSION"), Template.of("app-$VERSION"));
+
+    StringBuilder text = new StringBuilder();
+    while (text.length() <= 256) {
+      text.append("$VERSION ");
+    }
+    Template template = Template.of(text.toString());
+    Assert.assertNotSame(template, Template.of(text.toString()));
+    Assert.assertEquals(text.toString().replace("$VERSION", "1"),
+        template.render(new Environment().set("VERSION", "1")));
+  }
+
+  private static String replace(Environment environment, String pattern) {
+    StringBuilder builder = new StringBuilder();
+    int offset = 0;
+
+    Matcher matcher = TemplateTest.PARAMS.matcher(pattern);
+    while (matcher.find()) {
+      String name = matcher.group(1);
+      String value = environment.get(name);
+      builder.append(pattern.substring(offset, matcher.start(1) - 1));
+      builder.append(value == null ? "$" + name : value);
+      offset = matcher.end(1);
+    }
+    return builder.append(pattern.substring(offset)).toString();
+  }
+}
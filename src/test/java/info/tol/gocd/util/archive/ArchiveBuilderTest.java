@@ -0,0 +1,63 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import info.tol.gocd.util.Environment;
+
+
+public class ArchiveBuilderTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void sourceDateTest() {
+    Environment environment = new Environment();
+    Assert.assertEquals(0, ArchiveBuilder.getSourceDate(environment));
+
+    environment.set(ArchiveBuilder.SOURCE_DATE_EPOCH, " 1600000000 ");
+    Assert.assertEquals(1600000000000L, ArchiveBuilder.getSourceDate(environment));
+
+    for (String value : new String[] { "", "2020-09-13", "-1", "99999999999999999" }) {
+      environment.set(ArchiveBuilder.SOURCE_DATE_EPOCH, value);
+      try {
+        ArchiveBuilder.getSourceDate(environment);
+        Assert.fail(value);
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains(ArchiveBuilder.SOURCE_DATE_EPOCH));
+      }
+    }
+  }
+
+  @Test
+  public void deterministicTarTest() throws Exception {
+    File source = this.folder.newFolder("source");
+    Files.write(new File(source, "a.txt").toPath(), "a".getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(source, "b.txt").toPath(), "b".getBytes(StandardCharsets.UTF_8));
+
+    Environment environment = new Environment();
+    environment.set(ArchiveBuilder.SOURCE_DATE_EPOCH, "1600000000");
+    File archive = new File(this.folder.getRoot(), "source.tar");
+    Assembly.of(this.folder.getRoot()).setArchive(archive).setDeterministic(true)
+        .setSourceDate(ArchiveBuilder.getSourceDate(environment)).addPattern("source").build(s -> {});
+
+    try (TarArchiveInputStream stream = new TarArchiveInputStream(new FileInputStream(archive))) {
+      int count = 0;
+      for (TarArchiveEntry entry = stream.getNextTarEntry(); entry != null; entry = stream.getNextTarEntry()) {
+        Assert.assertEquals(entry.getName(), 1600000000000L, entry.getModTime().getTime());
+        count++;
+      }
+      Assert.assertEquals(2, count);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class ArchiveCacheTest {
+
+  private static final String[] PATHS = { "a", "b", "c", "d" };
+  private static final int      FILES = 50;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void concurrentExtractTest() throws Exception {
+    File workingDir = this.folder.newFolder();
+    File file = new File(workingDir, "data.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(file))) {
+      for (String path : ArchiveCacheTest.PATHS) {
+        for (int i = 0; i < ArchiveCacheTest.FILES; i++) {
+          ArchiveCacheTest.addFile(tar, path + "/f" + i, path + i);
+        }
+      }
+    }
+
+    // A cache without space evicts all entries, that are not in use
+    ArchiveCache cache = ArchiveCache.of(this.folder.newFolder(), 1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        String path = ArchiveCacheTest.PATHS[i % ArchiveCacheTest.PATHS.length];
+        futures.add(executor.submit(() -> cache.extract(Archive.of(file), path)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (String path : ArchiveCacheTest.PATHS) {
+      for (int i = 0; i < ArchiveCacheTest.FILES; i++) {
+        File extracted = new File(workingDir, "data/" + path + "/f" + i);
+        Assert.assertEquals(path + i, new String(Files.readAllBytes(extracted.toPath()), StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  private static void addFile(TarArchiveOutputStream tar, String name, String content) throws IOException {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(bytes.length);
+    tar.putArchiveEntry(entry);
+    tar.write(bytes);
+    tar.closeArchiveEntry();
+  }
+}
@@ -0,0 +1,79 @@
+package info.tol.gocd.util.archive;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+
+public class ArchiveTarTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void roundTripTest() throws Exception {
+    Path workingDir = this.folder.newFolder().toPath();
+    ArchiveTarTest.write(workingDir.resolve("app/bin/run.sh"), "run");
+    Files.setPosixFilePermissions(workingDir.resolve("app/bin/run.sh"), PosixFilePermissions.fromString("rwxr-xr-x"));
+    ArchiveTarTest.write(workingDir.resolve("app/lib/core.jar"), "core");
+    Files.createSymbolicLink(workingDir.resolve("app/lib/current.jar"), Paths.get("core.jar"));
+
+    String[] names = { "app.tar", "app.tar.gz", "app.tar.zst", "app.tar.xz", "app.tar.bz2" };
+    byte[][] magics = { null, { 0x1f, (byte) 0x8b }, { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd },
+        { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 }, { 'B', 'Z', 'h' } };
+    for (int index = 0; index < names.length; index++) {
+      File file = new File(this.folder.getRoot(), names[index]);
+      Assembly.of(workingDir.toFile()).setArchive(file).setParallelism(2)
+          .setCompression(Compression.of().setLevel(1).setZstdLevel(19)).addPattern("app").build(m -> {});
+      if (magics[index] != null) {
+        Assert.assertArrayEquals(names[index], magics[index], ArchiveTarTest.readHeader(file, magics[index].length));
+      }
+
+      // The content, the executable flag and the links are restored
+      File target = new File(this.folder.getRoot(), "extract-" + index);
+      Archive.of(file).extract(target);
+      Assert.assertEquals("run", ArchiveTarTest.read(target.toPath().resolve("bin/run.sh")));
+      Assert.assertTrue(Files.isExecutable(target.toPath().resolve("bin/run.sh")));
+      Assert.assertEquals("core", ArchiveTarTest.read(target.toPath().resolve("lib/core.jar")));
+      Assert.assertFalse(Files.isExecutable(target.toPath().resolve("lib/core.jar")));
+      Assert.assertEquals(Paths.get("core.jar"), Files.readSymbolicLink(target.toPath().resolve("lib/current.jar")));
+    }
+  }
+
+  @Test
+  public void unsupportedTest() throws Exception {
+    try {
+      Archive.of(new File(this.folder.getRoot(), "app.tar.lz4"));
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertEquals("Unsupported compression format for app.tar.lz4", e.getMessage());
+    }
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readHeader(File file, int length) throws IOException {
+    try (InputStream stream = Files.newInputStream(file.toPath())) {
+      byte[] header = new byte[length];
+      return Arrays.copyOf(header, Math.max(0, stream.read(header)));
+    }
+  }
+}
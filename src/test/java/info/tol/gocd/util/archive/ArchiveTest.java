@@ -0,0 +1,95 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Predicate;
+
+
+public class ArchiveTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void filterTest() {
+    Predicate<String> all = Archive.toFilter(null);
+    Assert.assertTrue(all.test("app/bin/run.sh"));
+
+    Predicate<String> filter = Archive.toFilter("app/plugins/[a-z]+-[0-9.]+");
+    Assert.assertTrue(filter.test("app/plugins/alpha-3.2"));
+    Assert.assertTrue(filter.test("app/plugins/alpha-3.2/lib/alpha.jar"));
+    Assert.assertFalse(filter.test("app/plugins"));
+    Assert.assertFalse(filter.test("app/plugins/alpha-3.2-src/lib/alpha.jar"));
+    Assert.assertFalse(filter.test("app/lib/core.jar"));
+  }
+
+  @Test
+  public void extractTest() throws Exception {
+    File file = new File(this.folder.getRoot(), "app.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(file))) {
+      ArchiveTest.addFile(tar, "./app/bin/run.sh", "run");
+      ArchiveTest.addFile(tar, "app/bin/lib/core.jar", "core");
+      ArchiveTest.addFile(tar, "app/binaries/tool", "tool");
+      ArchiveTest.addFile(tar, "app/doc/readme.txt", "readme");
+    }
+
+    // The entries outside of the sub path are skipped, the archive is extracted next to it
+    Archive archive = Archive.of(file);
+    archive.extract(Archive.toFilter("app/bin"));
+    File target = new File(this.folder.getRoot(), "app");
+    Assert.assertEquals(target, archive.getDirectory());
+    Assert.assertEquals("run", ArchiveTest.read(new File(target, "app/bin/run.sh")));
+    Assert.assertEquals("core", ArchiveTest.read(new File(target, "app/bin/lib/core.jar")));
+    Assert.assertFalse(new File(target, "app/binaries").exists());
+    Assert.assertFalse(new File(target, "app/doc").exists());
+  }
+
+  @Test
+  public void mapperTest() throws Exception {
+    File file = new File(this.folder.getRoot(), "app.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(file))) {
+      ArchiveTest.addFile(tar, "app/bin/run.sh", "run");
+      ArchiveTest.addFile(tar, "app/doc/readme.txt", "readme");
+    }
+
+    // The mapper relocates the entries, an empty name is the target itself
+    File target = this.folder.newFolder();
+    Archive.of(file).extract(target, (name, directory) -> name.equals("app/bin/run.sh") ? "bin/start.sh" : null);
+    Assert.assertEquals("run", ArchiveTest.read(new File(target, "bin/start.sh")));
+    Assert.assertArrayEquals(new String[] { "bin" }, target.list());
+
+    File single = new File(this.folder.getRoot(), "readme.txt");
+    Archive.of(file).extract(single, (name, directory) -> name.equals("app/doc/readme.txt") ? "" : null);
+    Assert.assertEquals("readme", ArchiveTest.read(single));
+
+    try {
+      Archive.of(file).extract(target, (name, directory) -> "../" + name);
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Entry is outside of the target dir"));
+    }
+  }
+
+  private static void addFile(TarArchiveOutputStream tar, String name, String content) throws IOException {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(bytes.length);
+    tar.putArchiveEntry(entry);
+    tar.write(bytes);
+    tar.closeArchiveEntry();
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+}
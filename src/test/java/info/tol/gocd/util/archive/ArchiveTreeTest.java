@@ -0,0 +1,133 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+public class ArchiveTreeTest {
+
+  private static final long DATE = 1500000000000L;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void findTest() throws Exception {
+    File workingDir = createWorkingDir();
+
+    // The entries are ordered by pattern, then by directory, regular file and link
+    List<ArchiveTree.Entry> entries = ArchiveTree.findEntries(workingDir,
+        Arrays.asList("app/lib/*.so", "app/bin", "app/lib/a.so"), Arrays.asList("lib", null, "copy"));
+    Assert.assertEquals(Arrays.asList("app/lib/a.so", "app/lib/b.so", "app/lib/c.so", "app/bin", "app/bin/run.sh",
+        "app/lib/a.so"), ArchiveTreeTest.toNames(workingDir, entries));
+    Assert.assertEquals(Arrays.asList("lib", "lib", "lib", null, null, "copy"),
+        entries.stream().map(ArchiveTree.Entry::getLocation).collect(Collectors.toList()));
+
+    // The linked directories are ordered as directories, but their sub tree is not walked
+    entries = ArchiveTree.findEntries(workingDir, Arrays.asList("app/*"), Arrays.asList((String) null));
+    Assert.assertEquals(Arrays.asList("app/bin", "app/lib", "app/share", "app/bin/run.sh", "app/lib/a.so",
+        "app/lib/b.so", "app/dangling", "app/lib/c.so"), ArchiveTreeTest.toNames(workingDir, entries));
+  }
+
+  @Test
+  public void attributesTest() throws Exception {
+    File workingDir = createWorkingDir();
+    List<ArchiveTree.Entry> entries = ArchiveTree.findEntries(workingDir,
+        Arrays.asList("app/bin", "app/lib/b.so", "app/lib/c.so", "app/share", "app/dangling"),
+        Collections.nCopies(5, null));
+
+    // The attributes of the files and of the link targets are kept with the entries
+    ArchiveTree.Entry bin = entries.get(0);
+    Assert.assertTrue(bin.isDirectory());
+    Assert.assertFalse(bin.isSymbolicLink());
+
+    ArchiveTree.Entry run = entries.get(1);
+    Assert.assertTrue(run.isRegularFile());
+    Assert.assertEquals(3, run.size());
+    Assert.assertEquals(ArchiveTreeTest.DATE, run.lastModified());
+    Assert.assertEquals("rwxr-x---", PosixFilePermissions.toString(run.getPosixAttributes().permissions()));
+
+    ArchiveTree.Entry link = entries.get(3);
+    Assert.assertTrue(link.isSymbolicLink());
+    Assert.assertTrue(link.isRegularFile());
+    Assert.assertEquals(1, link.size());
+    Assert.assertEquals(ArchiveTreeTest.DATE + 1000, link.lastModified());
+
+    ArchiveTree.Entry share = entries.get(4);
+    Assert.assertTrue(share.isSymbolicLink());
+    Assert.assertTrue(share.isDirectory());
+
+    ArchiveTree.Entry dangling = entries.get(5);
+    Assert.assertTrue(dangling.isSymbolicLink());
+    Assert.assertFalse(dangling.isDirectory());
+    Assert.assertFalse(dangling.isRegularFile());
+    Assert.assertEquals(0, dangling.size());
+  }
+
+  @Test
+  public void builderTest() throws Exception {
+    File workingDir = createWorkingDir();
+    File file = new File(this.folder.getRoot(), "app.tar");
+    try (ArchiveBuilder builder = Archive.builder(file)) {
+      builder.addFile(workingDir, "[lib]app/lib/*.so,app/bin");
+    }
+
+    // The entries of all patterns are written in the order of the patterns
+    List<String> names = new ArrayList<>();
+    try (TarArchiveInputStream tar = new TarArchiveInputStream(new FileInputStream(file))) {
+      for (TarArchiveEntry entry = tar.getNextTarEntry(); entry != null; entry = tar.getNextTarEntry()) {
+        names.add(entry.getName() + (entry.isSymbolicLink() ? " -> " + entry.getLinkName() : ""));
+        if (entry.getName().equals("app/bin/run.sh")) {
+          Assert.assertEquals(3, entry.getSize());
+          Assert.assertEquals(ArchiveTreeTest.DATE, entry.getModTime().getTime());
+          Assert.assertEquals(0750, entry.getMode() & 0777);
+        }
+      }
+    }
+    Assert.assertEquals(Arrays.asList("lib/app/lib/a.so", "lib/app/lib/b.so", "lib/app/lib/c.so -> a.so",
+        "app/bin/", "app/bin/run.sh"), names);
+  }
+
+  private File createWorkingDir() throws IOException {
+    Path root = this.folder.newFolder().toPath();
+    ArchiveTreeTest.write(root.resolve("app/bin/run.sh"), "run", ArchiveTreeTest.DATE);
+    Files.setPosixFilePermissions(root.resolve("app/bin/run.sh"), PosixFilePermissions.fromString("rwxr-x---"));
+    ArchiveTreeTest.write(root.resolve("app/lib/b.so"), "b", ArchiveTreeTest.DATE);
+    ArchiveTreeTest.write(root.resolve("app/lib/a.so"), "a", ArchiveTreeTest.DATE + 1000);
+    Files.createSymbolicLink(root.resolve("app/lib/c.so"), Paths.get("a.so"));
+    Files.createSymbolicLink(root.resolve("app/share"), Paths.get("../doc"));
+    ArchiveTreeTest.write(root.resolve("doc/readme.txt"), "readme", ArchiveTreeTest.DATE);
+    Files.createSymbolicLink(root.resolve("app/dangling"), Paths.get("missing"));
+    return root.toFile();
+  }
+
+  private static void write(Path path, String content, long date) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(path, FileTime.fromMillis(date));
+  }
+
+  private static List<String> toNames(File workingDir, List<ArchiveTree.Entry> entries) {
+    return entries.stream().map(e -> workingDir.toPath().relativize(e.getFile().toPath()).toString())
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,89 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+
+public class ArchiveWriterTest {
+
+  private static final int SMALL = 1024;
+  private static final int LARGE = 5 * 1024 * 1024;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void repeatedEntryTest() throws Exception {
+    File file = new File(this.folder.getRoot(), "data.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(file))) {
+      tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+      for (int i = 0; i < 20; i++) {
+        ArchiveWriterTest.addFile(tar, "small", ArchiveWriterTest.SMALL, i);
+        ArchiveWriterTest.addFile(tar, "mixed", (i % 2 == 0) ? ArchiveWriterTest.SMALL : ArchiveWriterTest.LARGE, i);
+      }
+      ArchiveWriterTest.addFile(tar, "large", ArchiveWriterTest.SMALL, 1);
+      ArchiveWriterTest.addFile(tar, "large", ArchiveWriterTest.LARGE, 2);
+      ArchiveWriterTest.addFile(tar, "last", ArchiveWriterTest.LARGE, 3);
+      ArchiveWriterTest.addFile(tar, "last", ArchiveWriterTest.SMALL, 4);
+    }
+
+    // The last entry of a name wins
+    File target = this.folder.newFolder();
+    Archive.of(file).setParallelism(4).extract(target);
+    ArchiveWriterTest.assertContent(new File(target, "small"), ArchiveWriterTest.SMALL, 19);
+    ArchiveWriterTest.assertContent(new File(target, "mixed"), ArchiveWriterTest.LARGE, 19);
+    ArchiveWriterTest.assertContent(new File(target, "large"), ArchiveWriterTest.LARGE, 2);
+    ArchiveWriterTest.assertContent(new File(target, "last"), ArchiveWriterTest.SMALL, 4);
+  }
+
+  @Test
+  public void hardLinkTest() throws Exception {
+    File file = new File(this.folder.getRoot(), "data.tar");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(file))) {
+      ArchiveWriterTest.addFile(tar, "small", ArchiveWriterTest.SMALL, 1);
+      ArchiveWriterTest.addFile(tar, "large", ArchiveWriterTest.LARGE, 2);
+    }
+
+    // The files linked by a previous build are replaced, the sources are kept
+    for (int parallelism : new int[] { 1, 4 }) {
+      File source = this.folder.newFolder();
+      File target = this.folder.newFolder();
+      for (String name : new String[] { "small", "large" }) {
+        Files.write(new File(source, name).toPath(), new byte[] { 42 });
+        Files.createLink(new File(target, name).toPath(), new File(source, name).toPath());
+      }
+
+      Archive.of(file).setParallelism(parallelism).extract(target);
+      ArchiveWriterTest.assertContent(new File(target, "small"), ArchiveWriterTest.SMALL, 1);
+      ArchiveWriterTest.assertContent(new File(target, "large"), ArchiveWriterTest.LARGE, 2);
+      ArchiveWriterTest.assertContent(new File(source, "small"), 1, 42);
+      ArchiveWriterTest.assertContent(new File(source, "large"), 1, 42);
+    }
+  }
+
+  private static void addFile(TarArchiveOutputStream tar, String name, int size, int value) throws IOException {
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, (byte) value);
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(bytes.length);
+    tar.putArchiveEntry(entry);
+    tar.write(bytes);
+    tar.closeArchiveEntry();
+  }
+
+  private static void assertContent(File file, int size, int value) throws IOException {
+    byte[] expected = new byte[size];
+    Arrays.fill(expected, (byte) value);
+    Assert.assertArrayEquals(file.getName(), expected, Files.readAllBytes(file.toPath()));
+  }
+}
@@ -0,0 +1,140 @@
+package info.tol.gocd.util.archive;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+
+public class ArchiveZipTest {
+
+  private static final int  SMALL = 4096;
+  private static final int  LARGE = 17 * 1024 * 1024;
+  private static final long DATE  = 1600000000000L;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void parallelismTest() throws Exception {
+    File source = this.folder.newFolder("source");
+    Random random = new Random(42);
+    for (int i = 0; i < 100; i++) {
+      ArchiveZipTest.addFile(new File(source, "small/file" + i + ".txt"), (i + 1) * ArchiveZipTest.SMALL / 10, random);
+    }
+    ArchiveZipTest.addFile(new File(source, "image.jpg"), ArchiveZipTest.SMALL, random);
+    ArchiveZipTest.addFile(new File(source, "large.txt"), ArchiveZipTest.LARGE, random);
+    ArchiveZipTest.addFile(new File(source, "large.mp4"), ArchiveZipTest.LARGE, random);
+
+    // The archive doesn't depend on the parallelism
+    File sequential = new File(this.folder.getRoot(), "sequential.zip");
+    File parallel = new File(this.folder.getRoot(), "parallel.zip");
+    Assembly.of(this.folder.getRoot()).setArchive(sequential).setParallelism(1)
+        .setCompression(Compression.of().storeCompressed()).addPattern("source").build(s -> {});
+    Assembly.of(this.folder.getRoot()).setArchive(parallel).setParallelism(4)
+        .setCompression(Compression.of().storeCompressed()).addPattern("source").build(s -> {});
+    Assert.assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+
+    try (ZipFile zip = new ZipFile(parallel)) {
+      Assert.assertEquals(103, zip.size());
+      ArchiveZipTest.assertEntry(zip, source, "small/file0.txt", ZipEntry.DEFLATED);
+      ArchiveZipTest.assertEntry(zip, source, "small/file99.txt", ZipEntry.DEFLATED);
+      ArchiveZipTest.assertEntry(zip, source, "image.jpg", ZipEntry.STORED);
+      ArchiveZipTest.assertEntry(zip, source, "large.txt", ZipEntry.DEFLATED);
+      ArchiveZipTest.assertEntry(zip, source, "large.mp4", ZipEntry.STORED);
+    }
+  }
+
+  @Test
+  public void extractTest() throws Exception {
+    File file = new File(this.folder.getRoot(), "app.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      ArchiveZipTest.addEntry(zip, "app/", null);
+      ArchiveZipTest.addEntry(zip, "app/bin/run.sh", "run");
+      ArchiveZipTest.addEntry(zip, "app/bin/lib/core.jar", "core");
+      ArchiveZipTest.addEntry(zip, "app/binaries/tool", "tool");
+      ArchiveZipTest.addEntry(zip, "app/doc/readme.txt", "readme");
+    }
+
+    // Only the sub path and its children are extracted
+    for (int parallelism : new int[] { 1, 4 }) {
+      File target = this.folder.newFolder();
+      Archive.of(file).setParallelism(parallelism).extract(target, Archive.toFilter("app/bin"));
+      Assert.assertEquals("run", ArchiveZipTest.read(new File(target, "app/bin/run.sh")));
+      Assert.assertEquals("core", ArchiveZipTest.read(new File(target, "app/bin/lib/core.jar")));
+      Assert.assertEquals(ArchiveZipTest.DATE, new File(target, "app/bin/run.sh").lastModified());
+      Assert.assertFalse(new File(target, "app/binaries").exists());
+      Assert.assertFalse(new File(target, "app/doc").exists());
+    }
+  }
+
+  /**
+   * Creates a file with random, but compressible content.
+   *
+   * @param file
+   * @param size
+   * @param random
+   */
+  private static void addFile(File file, int size, Random random) throws IOException {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) ('a' + random.nextInt(16));
+    }
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), bytes);
+  }
+
+  private static void addEntry(ZipOutputStream zip, String name, String content) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setTime(ArchiveZipTest.DATE);
+    zip.putNextEntry(entry);
+    if (content != null) {
+      zip.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    zip.closeEntry();
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+
+  private static void assertEntry(ZipFile zip, File source, String name, int method) throws IOException {
+    byte[] expected = Files.readAllBytes(new File(source, name).toPath());
+    CRC32 crc = new CRC32();
+    crc.update(expected);
+
+    ZipEntry entry = zip.getEntry(name);
+    Assert.assertNotNull(name, entry);
+    Assert.assertEquals(name, method, entry.getMethod());
+    Assert.assertEquals(name, crc.getValue(), entry.getCrc());
+    Assert.assertEquals(name, expected.length, entry.getSize());
+    if (method == ZipEntry.STORED) {
+      Assert.assertEquals(name, expected.length, entry.getCompressedSize());
+    } else {
+      Assert.assertTrue(name, entry.getCompressedSize() < expected.length);
+    }
+
+    byte[] actual = new byte[expected.length];
+    try (InputStream stream = zip.getInputStream(entry)) {
+      int offset = 0;
+      for (int count; (offset < actual.length) && ((count = stream.read(actual, offset, actual.length - offset)) > 0);) {
+        offset += count;
+      }
+      Assert.assertEquals(name, expected.length, offset);
+      Assert.assertEquals(name, -1, stream.read());
+    }
+    Assert.assertArrayEquals(name, expected, actual);
+  }
+}
@@ -0,0 +1,110 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+
+public class CompressionTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void storedTest() {
+    byte[] png = { (byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a };
+    byte[] text = "text".getBytes(StandardCharsets.UTF_8);
+
+    Compression compression = Compression.of();
+    Assert.assertFalse(compression.isStored("app/lib/app.jar", png, png.length));
+
+    // The extensions are compared case insensitive, the magic number only if the header is complete
+    compression = Compression.of().storeCompressed().addStored(".dat");
+    Assert.assertTrue(compression.isStored("app/lib/app.JAR", text, text.length));
+    Assert.assertTrue(compression.isStored("app/data.dat", text, text.length));
+    Assert.assertTrue(compression.isStored("app/image", png, png.length));
+    Assert.assertFalse(compression.isStored("app/image", png, 3));
+    Assert.assertFalse(compression.isStored("app/lib.jar/readme", text, text.length));
+    Assert.assertFalse(compression.isStored("app/readme.txt", text, text.length));
+    Assert.assertEquals(6, compression.getMagicLength());
+
+    // Without compression all entries are stored
+    Assert.assertTrue(Compression.of().setLevel(0).isStored("app/readme.txt", text, text.length));
+    for (int level : new int[] { -2, 10 }) {
+      try {
+        Compression.of().setLevel(level);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+        Assert.assertEquals("Invalid compression level " + level, e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void zipTest() throws Exception {
+    Path workingDir = this.folder.newFolder().toPath();
+    Map<String, byte[]> files = new HashMap<>();
+    files.put("lib/app.jar", CompressionTest.createData(1000, new byte[] { 'P', 'K', 3, 4 }));
+    files.put("data/archive.gz", CompressionTest.gzip(CompressionTest.createData(1000, new byte[0])));
+    files.put("data/image", CompressionTest.createData(1000, new byte[] { (byte) 0x89, 'P', 'N', 'G' }));
+    files.put("data/large.apk", CompressionTest.createData(17 * 1024 * 1024, new byte[0]));
+    files.put("readme.txt", CompressionTest.createData(1000, new byte[0]));
+    for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+      Files.createDirectories(workingDir.resolve("app").resolve(entry.getKey()).getParent());
+      Files.write(workingDir.resolve("app").resolve(entry.getKey()), entry.getValue());
+    }
+
+    // The compressed formats are stored, independent of the parallelism
+    for (int parallelism : new int[] { 1, 4 }) {
+      File archive = new File(this.folder.getRoot(), "app-" + parallelism + ".zip");
+      Assembly.of(workingDir.toFile()).setArchive(archive).setParallelism(parallelism)
+          .setCompression(Compression.of().storeCompressed()).addPattern("app").build(m -> {});
+
+      try (ZipFile zip = new ZipFile(archive)) {
+        for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+          ZipEntry zipEntry = zip.getEntry(entry.getKey());
+          int method = entry.getKey().endsWith(".txt") ? ZipEntry.DEFLATED : ZipEntry.STORED;
+          Assert.assertEquals(entry.getKey(), method, zipEntry.getMethod());
+          try (InputStream stream = zip.getInputStream(zipEntry)) {
+            Assert.assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), IOUtils.toByteArray(stream)));
+          }
+        }
+      }
+    }
+  }
+
+  private static byte[] createData(int size, byte[] magic) {
+    Random random = new Random(size);
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + random.nextInt(8));
+    }
+    System.arraycopy(magic, 0, data, 0, magic.length);
+    return data;
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream stream = new GZIPOutputStream(output)) {
+      stream.write(data);
+    }
+    return output.toByteArray();
+  }
+}
@@ -0,0 +1,75 @@
+package info.tol.gocd.util.archive;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+
+public class ParallelGzipOutputStreamTest {
+
+  private static final int BLOCK = 1024 * 1024;
+
+  @Test
+  public void roundTripTest() throws Exception {
+    int[] sizes = { 0, 1, ParallelGzipOutputStreamTest.BLOCK, 3 * ParallelGzipOutputStreamTest.BLOCK + 12345 };
+    for (int size : sizes) {
+      byte[] data = ParallelGzipOutputStreamTest.createData(size);
+
+      // The members don't depend on the parallelism
+      byte[] sequential = ParallelGzipOutputStreamTest.compress(data, 1);
+      byte[] parallel = ParallelGzipOutputStreamTest.compress(data, 4);
+      Assert.assertArrayEquals("size " + size, sequential, parallel);
+
+      try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(parallel))) {
+        Assert.assertArrayEquals("size " + size, data, IOUtils.toByteArray(stream));
+      }
+      try (InputStream stream = new GzipCompressorInputStream(new ByteArrayInputStream(parallel), true)) {
+        Assert.assertArrayEquals("size " + size, data, IOUtils.toByteArray(stream));
+      }
+    }
+  }
+
+  @Test
+  public void singleByteTest() throws Exception {
+    byte[] data = ParallelGzipOutputStreamTest.createData(ParallelGzipOutputStreamTest.BLOCK + 10);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ParallelGzipOutputStream stream = new ParallelGzipOutputStream(output, 2)) {
+      for (byte b : data) {
+        stream.write(b);
+      }
+    }
+
+    Assert.assertArrayEquals(ParallelGzipOutputStreamTest.compress(data, 2), output.toByteArray());
+    try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+      Assert.assertArrayEquals(data, IOUtils.toByteArray(stream));
+    }
+  }
+
+  private static byte[] compress(byte[] data, int parallelism) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ParallelGzipOutputStream stream = new ParallelGzipOutputStream(output, parallelism)) {
+      // Odd chunks, that cross the block boundaries
+      for (int offset = 0; offset < data.length; offset += 100000) {
+        stream.write(data, offset, Math.min(100000, data.length - offset));
+      }
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] createData(int size) {
+    Random random = new Random(size);
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return data;
+  }
+}